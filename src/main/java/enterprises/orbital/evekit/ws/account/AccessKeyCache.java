@@ -0,0 +1,176 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, least-recently-used cache of the derived transient fields of access keys (mask value, mask string and
+ * credential).  Entries are tied to the exact persistent fields of the key they were generated from, so a key changed
+ * outside this module is regenerated the next time it is seen.  Keys updated or deleted through this module are
+ * invalidated immediately.  Only the derived values are cached: callers always get back the key they loaded with the
+ * cached values set on it, so no entity is ever shared or copied.
+ */
+public class AccessKeyCache {
+  private static final Logger log = Logger.getLogger(AccessKeyCache.class.getName());
+
+  // Maximum number of cached keys
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.accessKeyCache.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 10000;
+
+  /**
+   * The persistent fields from which derived fields are generated.
+   */
+  static final class Version {
+    private final int accessKey;
+    private final String keyName;
+    private final long expiry;
+    private final long limit;
+    private final byte[] accessMask;
+
+    Version(SynchronizedAccountAccessKey key) {
+      accessKey = key.getAccessKey();
+      keyName = key.getKeyName();
+      expiry = key.getExpiry();
+      limit = key.getLimit();
+      accessMask = key.getAccessMask() == null ? null : key.getAccessMask()
+                                                           .clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Version other = (Version) o;
+      return accessKey == other.accessKey && expiry == other.expiry && limit == other.limit &&
+          Objects.equals(keyName, other.keyName) && Arrays.equals(accessMask, other.accessMask);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(accessKey, keyName, expiry, limit, Arrays.hashCode(accessMask));
+    }
+  }
+
+  /**
+   * Derived fields generated from a version of a key.
+   */
+  static final class Derived {
+    final BigInteger maskValue;
+    final String maskValueString;
+    final String credential;
+
+    Derived(SynchronizedAccountAccessKey key) {
+      maskValue = key.getMaskValue();
+      maskValueString = key.getMaskValueString();
+      credential = key.getCredential();
+    }
+  }
+
+  private static class Entry {
+    final Version version;
+    final Derived derived;
+
+    Entry(Version version, Derived derived) {
+      this.version = version;
+      this.derived = derived;
+    }
+  }
+
+  private static final int capacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY);
+
+  // Derived fields are transient and have no setters, so cached values are written back through these fields.  Null
+  // if the key class doesn't declare them, in which case derived fields are always generated.
+  private static final Field[] derivedFields = resolveDerivedFields();
+
+  // Guarded by the class lock
+  private static final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+      return size() > capacity;
+    }
+  };
+
+  private static Field[] resolveDerivedFields() {
+    try {
+      Field[] fields = new Field[]{
+          SynchronizedAccountAccessKey.class.getDeclaredField("maskValue"),
+          SynchronizedAccountAccessKey.class.getDeclaredField("maskValueString"),
+          SynchronizedAccountAccessKey.class.getDeclaredField("credential")
+      };
+      for (Field next : fields) next.setAccessible(true);
+      return fields;
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.log(Level.WARNING, "access key derived fields not found, derived fields will not be cached", e);
+      return null;
+    }
+  }
+
+  private static synchronized Derived lookup(long kid, Version version) {
+    Entry cached = entries.get(kid);
+    return cached != null && cached.version.equals(version) ? cached.derived : null;
+  }
+
+  private static synchronized void store(long kid, Version version, Derived derived) {
+    entries.put(kid, new Entry(version, derived));
+  }
+
+  /**
+   * Set cached derived fields on a key.
+   *
+   * @param key     key to update
+   * @param derived derived fields to set
+   * @return true if the fields were set, false if they must be generated instead
+   */
+  private static boolean apply(SynchronizedAccountAccessKey key, Derived derived) {
+    try {
+      derivedFields[0].set(key, derived.maskValue);
+      derivedFields[1].set(key, derived.maskValueString);
+      derivedFields[2].set(key, derived.credential);
+      return true;
+    } catch (IllegalAccessException | RuntimeException e) {
+      log.log(Level.WARNING, "unable to set access key derived fields", e);
+      return false;
+    }
+  }
+
+  /**
+   * Return the given key with derived fields generated.  If this exact version of the key has been seen before, the
+   * cached derived fields are set on the key instead of being generated again.
+   *
+   * @param key key freshly loaded from the database
+   * @return the given key with derived fields set
+   */
+  public static SynchronizedAccountAccessKey withDerivedFields(SynchronizedAccountAccessKey key) {
+    Version version = new Version(key);
+    if (derivedFields != null) {
+      Derived cached = lookup(key.getKid(), version);
+      if (cached != null && apply(key, cached)) return key;
+    }
+    key.generateMaskValue();
+    key.generateMaskValueString();
+    key.generateCredential();
+    if (derivedFields != null) store(key.getKid(), version, new Derived(key));
+    return key;
+  }
+
+  /**
+   * Discard the cached derived fields of a key.
+   *
+   * @param kid ID of the key which has changed
+   */
+  public static synchronized void invalidate(long kid) {
+    entries.remove(kid);
+  }
+
+}
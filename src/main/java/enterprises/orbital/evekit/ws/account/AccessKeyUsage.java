@@ -0,0 +1,228 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.base.PersistentProperty;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Meters access key usage.  Uses are counted in memory with no synchronization beyond a {@link LongAdder} per key,
+ * and pending counts are periodically added to a persistent property of the owning sync account in batches.  Each
+ * update locks the owning account row, so flushes from several service instances never lose each other's counts.
+ * Flushes and {@link #forget(SynchronizedAccountAccessKey)} are serialized, and a forgotten key is remembered for a while
+ * so that late uses of it are dropped rather than counted again.  A flush also skips keys which no longer exist, which
+ * covers keys deleted through another instance, so usage of a deleted key is never written back.  Counts not yet flushed when the process dies are lost, so usage is a lower bound.
+ */
+public class AccessKeyUsage {
+  private static final Logger log = Logger.getLogger(AccessKeyUsage.class.getName());
+
+  // Prefix of the sync account property holding the usage of a key.  The key ID is appended.
+  @SuppressWarnings("WeakerAccess")
+  public static final String USAGE_PROPERTY_PREFIX = "keyUsage.";
+
+  // Interval between flushes of pending counts
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_FLUSH_INTERVAL = "enterprises.orbital.evekit.accountws.keyUsage.flushInterval";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_FLUSH_INTERVAL = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+
+  // Number of keys flushed per transaction
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_SIZE = "enterprises.orbital.evekit.accountws.keyUsage.batchSize";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_SIZE = 200;
+
+  // Time for which a forgotten key is remembered, so uses racing with deletion are dropped.  Should comfortably exceed
+  // the time a deleted key can still be verified from a cache.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_FORGOTTEN_TTL = "enterprises.orbital.evekit.accountws.keyUsage.forgottenTtl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_FORGOTTEN_TTL = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+  private static class Counter {
+    final SynchronizedEveAccount account;
+    final LongAdder pending = new LongAdder();
+
+    Counter(SynchronizedEveAccount account) {
+      this.account = account;
+    }
+  }
+
+  private static class Flush {
+    final long kid;
+    final Counter counter;
+    final long count;
+
+    Flush(long kid, Counter counter, long count) {
+      this.kid = kid;
+      this.counter = counter;
+      this.count = count;
+    }
+  }
+
+  private static final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+  // Map from forgotten key ID to the time it was forgotten
+  private static final Map<Long, Long> forgotten = new ConcurrentHashMap<>();
+
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "key-usage-flush");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Guarded by the class lock
+  private static boolean started = false;
+
+  // Serializes flushes with forget
+  private static final Object flushLock = new Object();
+
+  /**
+   * Start periodic flushing if not already running.
+   */
+  public static synchronized void start() {
+    if (started) return;
+    started = true;
+    long interval = OrbitalProperties.getLongGlobalProperty(PROP_FLUSH_INTERVAL, DEF_FLUSH_INTERVAL);
+    // Starts from a static initializer, so a bad setting must not fail class loading
+    if (interval <= 0) interval = DEF_FLUSH_INTERVAL;
+    scheduler.scheduleWithFixedDelay(AccessKeyUsage::flush, interval, interval, TimeUnit.MILLISECONDS);
+    Runtime.getRuntime()
+           .addShutdownHook(new Thread(AccessKeyUsage::flush, "key-usage-final-flush"));
+  }
+
+  private static String propertyName(long kid) {
+    return USAGE_PROPERTY_PREFIX + kid;
+  }
+
+  /**
+   * Count one use of a key.
+   *
+   * @param key key which was used
+   */
+  public static void record(SynchronizedAccountAccessKey key) {
+    if (forgotten.containsKey(key.getKid())) return;
+    counters.computeIfAbsent(key.getKid(), k -> new Counter(key.getSyncAccount())).pending.increment();
+  }
+
+  /**
+   * Retrieve the usage of a key, including uses not yet flushed.
+   *
+   * @param key key to check
+   * @return usage of the key
+   */
+  public static KeyUsage getUsage(SynchronizedAccountAccessKey key) {
+    long usage = PersistentProperty.getLongPropertyWithFallback(key.getSyncAccount(), propertyName(key.getKid()), 0);
+    Counter counter = counters.get(key.getKid());
+    if (counter != null) usage += counter.pending.sum();
+    return new KeyUsage(key.getKid(), key.getAccessKey(), key.getKeyName(), usage, key.getLimit(), key.getExpiry());
+  }
+
+  /**
+   * Discard usage of a deleted key.
+   *
+   * @param key key which was deleted
+   */
+  public static void forget(SynchronizedAccountAccessKey key) {
+    synchronized (flushLock) {
+      // Remember the key first so a racing record can't leave a counter that is flushed later
+      forgotten.put(key.getKid(), OrbitalProperties.getCurrentTime());
+      counters.remove(key.getKid());
+      PersistentProperty.removeProperty(key.getSyncAccount(), propertyName(key.getKid()));
+    }
+  }
+
+  private static void flushBatch(List<Flush> batch) throws IOException {
+    // Lock accounts in a fixed order so concurrent flushes can't deadlock
+    batch.sort(Comparator.comparingLong(next -> next.counter.account.getAid()));
+    try {
+      EveKitUserAccountProvider.getFactory()
+                               .runTransaction(() -> {
+                                 // The property provider uses the account store, so property access joins this
+                                 // transaction.  AccountDisabledFlagsTest checks that a rollback undoes it.
+                                 EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                             .getEntityManager();
+                                 for (Flush next : batch) {
+                                   // Hold the owning account row until commit so read and write are not interleaved
+                                   em.find(SynchronizedEveAccount.class, next.counter.account.getAid(), LockModeType.PESSIMISTIC_WRITE);
+                                   // Drop usage of keys deleted since they were used, possibly by another instance
+                                   if (em.find(SynchronizedAccountAccessKey.class, next.kid) == null) continue;
+                                   String name = propertyName(next.kid);
+                                   long stored = PersistentProperty.getLongPropertyWithFallback(next.counter.account, name, 0);
+                                   PersistentProperty.setProperty(next.counter.account, name, String.valueOf(stored + next.count));
+                                 }
+                               });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  static void flush() {
+    synchronized (flushLock) {
+      flushLocked();
+    }
+  }
+
+  private static void flushLocked() {
+    int batchSize = (int) OrbitalProperties.getLongGlobalProperty(PROP_BATCH_SIZE, DEF_BATCH_SIZE);
+    long forgottenBefore = OrbitalProperties.getCurrentTime() -
+        OrbitalProperties.getLongGlobalProperty(PROP_FORGOTTEN_TTL, DEF_FORGOTTEN_TTL);
+    forgotten.values()
+             .removeIf(when -> when < forgottenBefore);
+    List<Flush> batch = new ArrayList<>();
+    for (Map.Entry<Long, Counter> next : counters.entrySet()) {
+      if (forgotten.containsKey(next.getKey())) {
+        counters.remove(next.getKey());
+        continue;
+      }
+      long count = next.getValue().pending.sumThenReset();
+      if (count == 0) continue;
+      batch.add(new Flush(next.getKey(), next.getValue(), count));
+      if (batch.size() == batchSize) {
+        flushOrRestore(batch);
+        batch = new ArrayList<>();
+      }
+    }
+    if (!batch.isEmpty()) flushOrRestore(batch);
+  }
+
+  /**
+   * Retrieve the number of uses of a key not yet flushed.
+   *
+   * @param kid ID of the key to check
+   * @return pending uses
+   */
+  static long getPending(long kid) {
+    Counter counter = counters.get(kid);
+    return counter == null ? 0 : counter.pending.sum();
+  }
+
+  private static void flushOrRestore(List<Flush> batch) {
+    try {
+      flushBatch(batch);
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "error flushing key usage, will retry", e);
+      // Return counts so they are retried on the next flush
+      for (Flush next : batch) next.counter.pending.add(next.count);
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.AccessKeyNotFoundException;
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+import enterprises.orbital.evekit.ws.common.BloomFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies access key credentials for downstream services.  Keys which exist are held in a bounded TTL cache so that
+ * repeated checks of the same key don't reach the database, whether or not the presented credential is correct.
+ * Key IDs which don't exist are recorded in a Bloom filter so that floods of invalid keys are also answered without a
+ * query.  The filter can't forget individual IDs, so it is cleared whenever a key is created through this module and
+ * every few seconds in case keys are created elsewhere.  Changes made through this module take effect immediately on
+ * this instance.  Both caches expire within seconds, which bounds how long a key created, deleted or re-masked on
+ * another instance is answered from stale state here.
+ */
+public class AccessKeyVerifier {
+
+  // Maximum number of cached keys
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.keyVerifier.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 20000;
+
+  // Time after which cached keys are reloaded.  Bounds how long a key deleted or changed elsewhere is still accepted.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TTL = "enterprises.orbital.evekit.accountws.keyVerifier.ttl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TTL = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+  // Number of missing key IDs the negative filter is sized for.  The filter is cleared once this many are recorded.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_NEGATIVE_CAPACITY = "enterprises.orbital.evekit.accountws.keyVerifier.negativeCapacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_NEGATIVE_CAPACITY = 1000000;
+
+  // Time after which the negative filter is cleared.  Bounds how long a key created elsewhere is still rejected.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_NEGATIVE_TTL = "enterprises.orbital.evekit.accountws.keyVerifier.negativeTtl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_NEGATIVE_TTL = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+  // False positive rate of the negative filter when full.  A false positive rejects a valid key until the next reset.
+  private static final double NEGATIVE_FALSE_POSITIVE_RATE = 0.0001;
+
+  private static class Entry {
+    final SynchronizedAccountAccessKey key;
+    final long loaded;
+
+    Entry(SynchronizedAccountAccessKey key, long loaded) {
+      this.key = key;
+      this.loaded = loaded;
+    }
+  }
+
+  private static final int capacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY);
+  private static final long ttl = OrbitalProperties.getLongGlobalProperty(PROP_TTL, DEF_TTL);
+  private static final int negativeCapacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_NEGATIVE_CAPACITY, DEF_NEGATIVE_CAPACITY);
+  private static final long negativeTtl = OrbitalProperties.getLongGlobalProperty(PROP_NEGATIVE_TTL, DEF_NEGATIVE_TTL);
+
+  // All remaining state is guarded by the class lock
+  private static final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+      return size() > capacity;
+    }
+  };
+  private static final BloomFilter missing = new BloomFilter(negativeCapacity, NEGATIVE_FALSE_POSITIVE_RATE);
+  private static long missingReset = OrbitalProperties.getCurrentTime();
+  // Incremented on every invalidation so that loads racing an invalidation are not cached
+  private static long generation;
+
+  private static synchronized SynchronizedAccountAccessKey lookup(int accessKey) {
+    Entry cached = entries.get(accessKey);
+    if (cached == null) return null;
+    if (OrbitalProperties.getCurrentTime() - cached.loaded < ttl) return cached.key;
+    entries.remove(accessKey);
+    return null;
+  }
+
+  private static synchronized boolean isMissing(int accessKey) {
+    if (OrbitalProperties.getCurrentTime() - missingReset >= negativeTtl || missing.getCount() >= negativeCapacity) {
+      missing.clear();
+      missingReset = OrbitalProperties.getCurrentTime();
+      return false;
+    }
+    return missing.mightContain(accessKey);
+  }
+
+  private static synchronized long getGeneration() {
+    return generation;
+  }
+
+  private static synchronized void store(int accessKey, SynchronizedAccountAccessKey key, long loaded, long start) {
+    if (generation == start) entries.put(accessKey, new Entry(key, loaded));
+  }
+
+  private static synchronized void storeMissing(int accessKey, long start) {
+    if (generation == start) missing.add(accessKey);
+  }
+
+  private static boolean credentialMatches(SynchronizedAccountAccessKey key, String hash) {
+    // Constant time comparison so response timing doesn't reveal how much of a guess was correct
+    return key.getCredential() != null &&
+        MessageDigest.isEqual(key.getCredential()
+                                 .getBytes(StandardCharsets.UTF_8), hash.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Verify an access key credential.  Successful verifications count as a use of the key.
+   *
+   * @param accessKey ID of the access key
+   * @param hash      credential presented for the key
+   * @return the result of verification.  Expiry and mask are only included if the credential matches.
+   * @throws IOException on any error loading the key
+   */
+  public static KeyVerification verify(int accessKey, String hash) throws IOException {
+    SynchronizedAccountAccessKey key = lookup(accessKey);
+    if (key == null) {
+      if (isMissing(accessKey)) return KeyVerification.invalid(accessKey);
+      long start = getGeneration();
+      long loaded = OrbitalProperties.getCurrentTime();
+      try {
+        key = AccessKeyCache.withDerivedFields(SynchronizedAccountAccessKey.getKeyByAccessKey(accessKey));
+      } catch (AccessKeyNotFoundException e) {
+        storeMissing(accessKey, start);
+        return KeyVerification.invalid(accessKey);
+      }
+      store(accessKey, key, loaded, start);
+    }
+
+    if (!credentialMatches(key, hash)) return KeyVerification.invalid(accessKey);
+    boolean expired = key.getExpiry() > 0 && key.getExpiry() <= OrbitalProperties.getCurrentTime();
+    if (!expired) AccessKeyUsage.record(key);
+    return new KeyVerification(accessKey, !expired, key.getExpiry(), key.getMaskValueString());
+  }
+
+  /**
+   * Discard the cached copy of a key which has been updated or deleted.
+   *
+   * @param accessKey ID of the access key which has changed
+   */
+  public static synchronized void invalidate(int accessKey) {
+    generation++;
+    entries.remove(accessKey);
+  }
+
+  /**
+   * Forget all key IDs recorded as missing.  Must be called whenever a key is created.
+   */
+  public static synchronized void invalidateMissing() {
+    generation++;
+    missing.clear();
+    missingReset = OrbitalProperties.getCurrentTime();
+  }
+
+}
@@ -0,0 +1,121 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class AccountCleanupJob {
+
+  public enum State {
+    QUEUED,
+    RUNNING,
+    CANCELLED,
+    FINISHED,
+    FAILED
+  }
+
+  public enum Phase {
+    TRACKERS,
+    KEYS,
+    FLAGS,
+    DONE
+  }
+
+  private long uid;
+  private long aid;
+  private State state = State.QUEUED;
+  private Phase phase = Phase.TRACKERS;
+  private long submitted;
+  private long started;
+  private long finished;
+  private long trackersRemoved;
+  private long keysRemoved;
+  private String error;
+
+  public AccountCleanupJob(long uid, long aid, long submitted) {
+    this.uid = uid;
+    this.aid = aid;
+    this.submitted = submitted;
+  }
+
+  public AccountCleanupJob(AccountCleanupJob other) {
+    uid = other.uid;
+    aid = other.aid;
+    state = other.state;
+    phase = other.phase;
+    submitted = other.submitted;
+    started = other.started;
+    finished = other.finished;
+    trackersRemoved = other.trackersRemoved;
+    keysRemoved = other.keysRemoved;
+    error = other.error;
+  }
+
+  public long getUid() {
+    return uid;
+  }
+
+  public long getAid() {
+    return aid;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  public long getStarted() {
+    return started;
+  }
+
+  public long getFinished() {
+    return finished;
+  }
+
+  public long getTrackersRemoved() {
+    return trackersRemoved;
+  }
+
+  public long getKeysRemoved() {
+    return keysRemoved;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public boolean isActive() {
+    return state == State.QUEUED || state == State.RUNNING;
+  }
+
+  public void setState(State state) {
+    this.state = state;
+  }
+
+  public void setPhase(Phase phase) {
+    this.phase = phase;
+  }
+
+  public void setStarted(long started) {
+    this.started = started;
+  }
+
+  public void setFinished(long finished) {
+    this.finished = finished;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+
+  public void addTrackersRemoved(long count) {
+    trackersRemoved += count;
+  }
+
+  public void addKeysRemoved(long count) {
+    keysRemoved += count;
+  }
+}
@@ -0,0 +1,289 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.AccessKeyNotFoundException;
+import enterprises.orbital.evekit.account.AccountNotFoundException;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import enterprises.orbital.evekit.ws.model.UnfinishedTrackerCache;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes the data of sync accounts marked for deletion in the background.  Sync trackers, then access keys are removed
+ * in bounded batches, one transaction per batch, with a pause between batches so that large accounts don't hold long
+ * transactions or starve other tracker table users.  Finally the account's disabled flag is cleared.  Other account
+ * properties are left to the regular purge of accounts marked for deletion.  A job starts after a grace delay and is
+ * cancelled if the account is restored, so an account restored soon after deletion loses nothing.  Once a job has
+ * started removing access keys the account can no longer be restored intact, so {@link #cancelForRestore(long)}
+ * refuses and the restore is rejected.  Every batch locks the account row and removes nothing unless the account is
+ * still marked for deletion, so a restore made through another server, or racing with a batch, also stops cleanup
+ * without losing data past that point.  Jobs are held in memory: a job interrupted by a restart is not resumed, and
+ * its account is left to the regular purge of accounts marked for deletion.
+ */
+public class AccountCleanupJobs {
+  private static final Logger log = Logger.getLogger(AccountCleanupJobs.class.getName());
+
+  // Delay between deletion and the start of cleanup
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_START_DELAY = "enterprises.orbital.evekit.accountws.cleanup.startDelay";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_START_DELAY = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+  // Pause between batches
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_DELAY = "enterprises.orbital.evekit.accountws.cleanup.batchDelay";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_DELAY = 500;
+
+  // Number of trackers or keys removed per batch
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_SIZE = "enterprises.orbital.evekit.accountws.cleanup.batchSize";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_SIZE = 500;
+
+  // Number of jobs retained for status reporting
+  private static final int MAX_JOBS = 1000;
+
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "account-cleanup");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Guarded by the class lock.  Jobs are keyed by account ID.
+  private static final LinkedHashMap<Long, AccountCleanupJob> jobs = new LinkedHashMap<Long, AccountCleanupJob>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, AccountCleanupJob> eldest) {
+      return size() > MAX_JOBS;
+    }
+  };
+
+  /**
+   * Queue cleanup of an account which has been marked for deletion.  If cleanup is already queued or running for the
+   * account, the existing job is returned.
+   *
+   * @param account account marked for deletion
+   * @return status of the cleanup job
+   */
+  public static synchronized AccountCleanupJob submit(SynchronizedEveAccount account) {
+    AccountCleanupJob job = jobs.get(account.getAid());
+    if (job == null || !job.isActive()) {
+      job = new AccountCleanupJob(account.getUserAccount()
+                                         .getID(), account.getAid(), OrbitalProperties.getCurrentTime());
+      jobs.remove(account.getAid());
+      jobs.put(account.getAid(), job);
+      AccountCleanupJob scheduled = job;
+      scheduler.schedule(() -> step(scheduled, account),
+                         OrbitalProperties.getLongGlobalProperty(PROP_START_DELAY, DEF_START_DELAY), TimeUnit.MILLISECONDS);
+    }
+    return new AccountCleanupJob(job);
+  }
+
+  /**
+   * Cancel cleanup of an account which is about to be restored.  Cleanup may already have removed sync trackers, which
+   * are history only, but once it has moved on to access keys the account can't be restored intact.  If the restore
+   * fails, cleanup should be submitted again.
+   *
+   * @param aid ID of the account
+   * @return false if cleanup has gone past removing trackers and the account should not be restored
+   */
+  public static synchronized boolean cancelForRestore(long aid) {
+    AccountCleanupJob job = jobs.get(aid);
+    if (job == null) return true;
+    if (job.getPhase() != AccountCleanupJob.Phase.TRACKERS) return false;
+    if (job.isActive()) {
+      job.setState(AccountCleanupJob.State.CANCELLED);
+      job.setFinished(OrbitalProperties.getCurrentTime());
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the status of the most recent cleanup job for an account.
+   *
+   * @param aid ID of the account
+   * @return status of the job, or null if no job is known for the account
+   */
+  public static synchronized AccountCleanupJob getJob(long aid) {
+    AccountCleanupJob job = jobs.get(aid);
+    return job == null ? null : new AccountCleanupJob(job);
+  }
+
+  // Claim the next batch of a job, returning the current phase or null if the job is no longer active
+  private static synchronized AccountCleanupJob.Phase begin(AccountCleanupJob job) {
+    if (!job.isActive()) return null;
+    if (job.getState() == AccountCleanupJob.State.QUEUED) {
+      job.setState(AccountCleanupJob.State.RUNNING);
+      job.setStarted(OrbitalProperties.getCurrentTime());
+    }
+    return job.getPhase();
+  }
+
+  // Reload an account, returning null if it no longer exists or is no longer marked for deletion
+  private static SynchronizedEveAccount reload(SynchronizedEveAccount account) throws IOException {
+    try {
+      SynchronizedEveAccount current = SynchronizedEveAccount.getSynchronizedAccount(account.getUserAccount(),
+                                                                                     account.getAid(), true);
+      return current.getMarkedForDelete() > 0 ? current : null;
+    } catch (AccountNotFoundException e) {
+      return null;
+    }
+  }
+
+  // Lock the account row until commit, returning false if the account is no longer marked for deletion.  Restoring
+  // an account updates the same row, so a restore either completes before a batch or waits until the batch commits.
+  private static boolean lockMarked(EntityManager em, SynchronizedEveAccount account) {
+    SynchronizedEveAccount locked = em.find(SynchronizedEveAccount.class, account.getAid(), LockModeType.PESSIMISTIC_WRITE);
+    return locked != null && locked.getMarkedForDelete() > 0;
+  }
+
+  // Remove a batch of trackers, returning the number removed or -1 if the account is no longer marked for deletion
+  private static int removeTrackerBatch(SynchronizedEveAccount account, int batchSize) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                    .getEntityManager();
+                                        if (!lockMarked(em, account)) return -1;
+                                        TypedQuery<Long> select = em.createQuery("SELECT c.tid FROM ESIEndpointSyncTracker c WHERE c.account = :account ORDER BY c.tid ASC", Long.class);
+                                        select.setParameter("account", account);
+                                        select.setMaxResults(batchSize);
+                                        List<Long> tids = select.getResultList();
+                                        if (tids.isEmpty()) return 0;
+                                        return em.createQuery("DELETE FROM ESIEndpointSyncTracker c WHERE c.tid IN :tids")
+                                                 .setParameter("tids", tids)
+                                                 .executeUpdate();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // Remove a batch of access keys, returning the number removed or -1 if the account is no longer marked for deletion
+  private static int removeKeyBatch(SynchronizedEveAccount account, int batchSize) throws IOException {
+    List<SynchronizedAccountAccessKey> removed = new ArrayList<>();
+    boolean marked;
+    try {
+      marked = EveKitUserAccountProvider.getFactory()
+                                        .runTransaction(() -> {
+                                          removed.clear();
+                                          EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                      .getEntityManager();
+                                          if (!lockMarked(em, account)) return false;
+                                          // Key access joins this transaction, so keys are only removed while the lock is held
+                                          for (SynchronizedAccountAccessKey next : SynchronizedAccountAccessKey.getAllKeys(account)) {
+                                            if (removed.size() == batchSize) break;
+                                            try {
+                                              SynchronizedAccountAccessKey.deleteKey(account, next.getKid());
+                                            } catch (AccessKeyNotFoundException e) {
+                                              // Already removed
+                                            }
+                                            removed.add(next);
+                                          }
+                                          return true;
+                                        });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+    if (!marked) return -1;
+    for (SynchronizedAccountAccessKey next : removed) {
+      AccessKeyCache.invalidate(next.getKid());
+      AccessKeyVerifier.invalidate(next.getAccessKey());
+      AccessKeyUsage.forget(next);
+    }
+    return removed.size();
+  }
+
+  private static void cancelled(AccountCleanupJob job) {
+    synchronized (AccountCleanupJobs.class) {
+      if (job.isActive()) {
+        job.setState(AccountCleanupJob.State.CANCELLED);
+        job.setFinished(OrbitalProperties.getCurrentTime());
+      }
+    }
+  }
+
+  private static void step(AccountCleanupJob job, SynchronizedEveAccount account) {
+    AccountCleanupJob.Phase phase = begin(job);
+    if (phase == null) return;
+    int batchSize = (int) OrbitalProperties.getLongGlobalProperty(PROP_BATCH_SIZE, DEF_BATCH_SIZE);
+    try {
+      // Stop if the account was restored or removed since the last batch
+      SynchronizedEveAccount current = reload(account);
+      if (current == null) {
+        cancelled(job);
+        return;
+      }
+      int removed;
+      AccountCleanupJob.Phase next = phase;
+      switch (phase) {
+        case TRACKERS:
+          removed = removeTrackerBatch(current, batchSize);
+          if (removed < 0) {
+            cancelled(job);
+            return;
+          }
+          UnfinishedTrackerCache.invalidate(account.getAid());
+          synchronized (AccountCleanupJobs.class) {
+            job.addTrackersRemoved(removed);
+          }
+          if (removed < batchSize) next = AccountCleanupJob.Phase.KEYS;
+          break;
+        case KEYS:
+          removed = removeKeyBatch(current, batchSize);
+          if (removed < 0) {
+            cancelled(job);
+            return;
+          }
+          synchronized (AccountCleanupJobs.class) {
+            job.addKeysRemoved(removed);
+          }
+          if (removed < batchSize) next = AccountCleanupJob.Phase.FLAGS;
+          break;
+        case FLAGS:
+        default:
+          AccountDisabledFlags.clear(current);
+          next = AccountCleanupJob.Phase.DONE;
+          break;
+      }
+      synchronized (AccountCleanupJobs.class) {
+        // A job cancelled during this batch keeps its phase, which tells a restore how far cleanup got
+        if (!job.isActive()) return;
+        job.setPhase(next);
+        if (next == AccountCleanupJob.Phase.DONE) {
+          job.setState(AccountCleanupJob.State.FINISHED);
+          job.setFinished(OrbitalProperties.getCurrentTime());
+          return;
+        }
+      }
+      scheduler.schedule(() -> step(job, account),
+                         OrbitalProperties.getLongGlobalProperty(PROP_BATCH_DELAY, DEF_BATCH_DELAY), TimeUnit.MILLISECONDS);
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "error cleaning up account " + account.getAid(), e);
+      synchronized (AccountCleanupJobs.class) {
+        job.setState(AccountCleanupJob.State.FAILED);
+        job.setError(String.valueOf(e.getMessage()));
+        job.setFinished(OrbitalProperties.getCurrentTime());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.base.PersistentProperty;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes the "disabled" property of sync accounts through a bounded write-through cache.  Writes through
+ * this module keep the local cache current, but other service instances and direct database changes are only
+ * picked up when a cached flag expires, so the cache lifetime is kept to a few seconds.  The cache only absorbs
+ * bursts of repeated checks, such as a user listing accounts.
+ */
+public class AccountDisabledFlags {
+  private static final Logger log = Logger.getLogger(AccountDisabledFlags.class.getName());
+
+  // Property holding the disabled state of a sync account
+  @SuppressWarnings("WeakerAccess")
+  public static final String DISABLED_PROPERTY = "disabled";
+
+  // Maximum number of cached flags
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.disabledCache.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 20000;
+
+  // Time after which cached flags are reloaded.  This bounds how long a change made on another instance goes unseen.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TTL = "enterprises.orbital.evekit.accountws.disabledCache.ttl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TTL = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+  private static class Entry {
+    final boolean disabled;
+    final long loaded;
+
+    Entry(boolean disabled, long loaded) {
+      this.disabled = disabled;
+      this.loaded = loaded;
+    }
+  }
+
+  private static final int capacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY);
+  private static final long ttl = OrbitalProperties.getLongGlobalProperty(PROP_TTL, DEF_TTL);
+
+  // Guarded by the class lock
+  private static final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+      return size() > capacity;
+    }
+  };
+
+  private static synchronized Boolean lookup(long aid) {
+    Entry cached = entries.get(aid);
+    if (cached == null) return null;
+    if (OrbitalProperties.getCurrentTime() - cached.loaded < ttl) return cached.disabled;
+    entries.remove(aid);
+    return null;
+  }
+
+  private static synchronized void store(long aid, boolean disabled, long loaded) {
+    entries.put(aid, new Entry(disabled, loaded));
+  }
+
+  /**
+   * Check whether an account is disabled.
+   *
+   * @param account account to check
+   * @return true if the account is disabled
+   */
+  public static boolean isDisabled(SynchronizedEveAccount account) {
+    Boolean disabled = lookup(account.getAid());
+    if (disabled != null) return disabled;
+    long loaded = OrbitalProperties.getCurrentTime();
+    disabled = PersistentProperty.getBooleanPropertyWithFallback(account, DISABLED_PROPERTY, false);
+    store(account.getAid(), disabled, loaded);
+    return disabled;
+  }
+
+  /**
+   * Check whether each of a set of accounts is disabled.
+   *
+   * @param accounts accounts to check
+   * @return map from account ID to disabled state, in the iteration order of the given accounts
+   */
+  public static Map<Long, Boolean> getDisabled(Collection<SynchronizedEveAccount> accounts) {
+    Map<Long, Boolean> result = new LinkedHashMap<>();
+    for (SynchronizedEveAccount next : accounts) result.put(next.getAid(), isDisabled(next));
+    return result;
+  }
+
+  /**
+   * Change the disabled state of an account.
+   *
+   * @param account  account to change
+   * @param disabled new disabled state
+   */
+  public static void setDisabled(SynchronizedEveAccount account, boolean disabled) {
+    long loaded = OrbitalProperties.getCurrentTime();
+    PersistentProperty.setProperty(account, DISABLED_PROPERTY, String.valueOf(disabled));
+    store(account.getAid(), disabled, loaded);
+  }
+
+  /**
+   * Remove the disabled property of an account, for example when the account is being deleted.
+   *
+   * @param account account to change
+   */
+  public static void clear(SynchronizedEveAccount account) {
+    PersistentProperty.removeProperty(account, DISABLED_PROPERTY);
+    synchronized (AccountDisabledFlags.class) {
+      entries.remove(account.getAid());
+    }
+  }
+
+  /**
+   * Change the disabled state of a set of accounts in a single transaction.  The current state of each account is
+   * read inside the transaction, bypassing the cache, and only accounts whose state differs are written.
+   *
+   * @param accounts accounts to change
+   * @param disabled new disabled state
+   * @return IDs of accounts whose state was changed
+   * @throws IOException on any error changing state, in which case no account is changed
+   */
+  public static Set<Long> setDisabled(Collection<SynchronizedEveAccount> accounts, boolean disabled) throws IOException {
+    long loaded = OrbitalProperties.getCurrentTime();
+    Set<Long> changed = new HashSet<>();
+    try {
+      EveKitUserAccountProvider.getFactory()
+                               .runTransaction(() -> {
+                                 changed.clear();
+                                 // The property provider uses the account store, so these reads and writes join
+                                 // this transaction.  AccountDisabledFlagsTest checks that a rollback undoes them.
+                                 for (SynchronizedEveAccount next : accounts) {
+                                   if (PersistentProperty.getBooleanPropertyWithFallback(next, DISABLED_PROPERTY, false) == disabled)
+                                     continue;
+                                   PersistentProperty.setProperty(next, DISABLED_PROPERTY, String.valueOf(disabled));
+                                   changed.add(next.getAid());
+                                 }
+                               });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+    for (SynchronizedEveAccount next : accounts) store(next.getAid(), disabled, loaded);
+    return changed;
+  }
+
+}
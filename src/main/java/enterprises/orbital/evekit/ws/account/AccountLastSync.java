@@ -0,0 +1,46 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retrieves last synchronization times for many sync accounts with a single grouped query, rather than one latest
+ * tracker query per account.
+ */
+public class AccountLastSync {
+  private static final Logger log = Logger.getLogger(AccountLastSync.class.getName());
+
+  /**
+   * Retrieve the end time of the latest finished tracker for each of the given accounts.
+   *
+   * @param accounts accounts for which last sync times will be retrieved
+   * @return map from account ID to last sync time.  Accounts with no finished trackers are not included.
+   * @throws IOException on any error retrieving sync times
+   */
+  public static Map<Long, Long> getLastSynchronized(Collection<SynchronizedEveAccount> accounts) throws IOException {
+    if (accounts.isEmpty()) return Collections.emptyMap();
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        List<Object[]> rows = EveKitUserAccountProvider.getFactory()
+                                                                                       .getEntityManager()
+                                                                                       .createQuery("SELECT c.account.aid, MAX(c.syncEnd) FROM ESIEndpointSyncTracker c WHERE c.account IN :accounts AND c.syncEnd > 0 GROUP BY c.account.aid", Object[].class)
+                                                                                       .setParameter("accounts", accounts)
+                                                                                       .getResultList();
+                                        Map<Long, Long> result = new HashMap<>();
+                                        for (Object[] next : rows) result.put((Long) next[0], (Long) next[1]);
+                                        return result;
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
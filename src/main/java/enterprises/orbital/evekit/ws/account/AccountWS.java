@@ -1,22 +1,27 @@
 package enterprises.orbital.evekit.ws.account;
 
-import enterprises.orbital.base.PersistentProperty;
 import enterprises.orbital.evekit.account.*;
-import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
-import enterprises.orbital.evekit.model.ESIScope;
-import enterprises.orbital.evekit.model.TrackerNotFoundException;
+import enterprises.orbital.evekit.ws.common.CacheStats;
+import enterprises.orbital.evekit.ws.common.ConditionalResponse;
 import enterprises.orbital.evekit.ws.common.ServiceError;
-import enterprises.orbital.oauth.AuthUtil;
+import enterprises.orbital.evekit.ws.common.StreamingJsonArray;
+import enterprises.orbital.evekit.ws.common.UserCache;
 import io.swagger.annotations.*;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Path("/ws/v1/account")
 @Consumes({
@@ -32,6 +37,18 @@ import java.util.List;
     produces = "application/json",
     consumes = "application/json")
 public class AccountWS {
+  // Maximum page size for user listings
+  private static final int MAX_USER_PAGE = 5000;
+  // Header carrying the "after" value for the next page of a user listing
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  // Default and maximum page sizes for note listings
+  private static final int DEF_NOTE_PAGE = 50;
+  private static final int MAX_NOTE_PAGE = 1000;
+
+  static {
+    // This module has no application lifecycle hook, so background tasks start with the first account request
+    AccessKeyUsage.start();
+  }
 
   /**
    * Generate a response for a user who is not an admin.
@@ -59,7 +76,7 @@ public class AccountWS {
         return createUserNotAdminResponse();
       } else {
         try {
-          EveKitUserAccount.getAccount(uid);
+          UserCache.getUser(uid);
         } catch (UserNotFoundException | IOException e) {
           ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
           return Response.status(Status.NOT_FOUND)
@@ -102,6 +119,9 @@ public class AccountWS {
               message = "list of sync accounts",
               response = SynchronizedEveAccount.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 401,
               message = "requesting for other than logged in user but requestor not logged in or not an admin",
@@ -126,14 +146,14 @@ public class AccountWS {
           required = true,
           value = "ID of single sync account to retrieve.  Set to -1 to retrieve all sync accounts for the given user.") long aid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Retrieve either target account or all accounts
       List<SynchronizedEveAccount> result = new ArrayList<>();
@@ -143,18 +163,14 @@ public class AccountWS {
         result.addAll(SynchronizedEveAccount.getAllAccounts(user, true));
 
       // Finish
+      Map<Long, Long> lastSynchronized = AccountLastSync.getLastSynchronized(result);
       for (SynchronizedEveAccount next : result) {
         // Update last synchronized time
-        try {
-          next.setLastSynchronized(ESIEndpointSyncTracker.getAnyLatestFinishedTracker(next).getSyncEnd());
-        } catch (TrackerNotFoundException e) {
-          // ignore
-        }
+        Long syncEnd = lastSynchronized.get(next.getAid());
+        if (syncEnd != null) next.setLastSynchronized(syncEnd);
         next.updateValid();
       }
-      return Response.ok()
-                     .entity(result)
-                     .build();
+      return ConditionalResponse.ok(request, result);
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
       return Response.status(Status.NOT_FOUND)
@@ -230,7 +246,7 @@ public class AccountWS {
           required = true,
           value = "True if account will sync a character, false otherwise.  Ignored for updates to existing accounts.") boolean charType) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
@@ -238,7 +254,7 @@ public class AccountWS {
     // Create or update account
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Verify name is valid
       if (name == null || name.length() == 0 || name.length() > SynchronizedEveAccount.SYNC_ACCOUNT_NAME_MAX_LENGTH) {
@@ -251,12 +267,14 @@ public class AccountWS {
       }
 
       SynchronizedEveAccount result;
-      if (aid == -1)
+      if (aid == -1) {
         // New account
         result = SynchronizedEveAccount.createSynchronizedEveAccount(user, name, charType);
-      else
+      } else {
         // Update from passed value - legal changes are: name, autoSynchronized
         result = SynchronizedEveAccount.updateAccount(user, aid, name);
+        SyncAccountCache.invalidate(user, aid);
+      }
 
       result.updateValid();
       return Response.ok()
@@ -302,12 +320,13 @@ public class AccountWS {
   }
 
   /**
-   * Delete sync account.
+   * Delete sync account.  The account is marked for delete immediately and its data is removed by a background
+   * cleanup job.
    *
    * @param request incoming HTTP request
    * @param uid     requesting user, or -1 for the currently logged in user
    * @param aid     account to delete
-   * @return OK if marked for delete is successful
+   * @return status of the cleanup job if marked for delete is successful
    */
   @Path("/sync_account/{uid}/{aid}")
   @DELETE
@@ -317,7 +336,8 @@ public class AccountWS {
       value = {
           @ApiResponse(
               code = 200,
-              message = "account marked for delete successfully"),
+              message = "account marked for delete successfully, with the status of the queued cleanup job",
+              response = AccountCleanupJob.class),
           @ApiResponse(
               code = 401,
               message = "either the requestor is not logged in, or requesting for other than logged in user but requestor not logged in or not an admin",
@@ -342,18 +362,21 @@ public class AccountWS {
           required = true,
           value = "ID of sync account to mark.") long aid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have the proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
-      // Mark for deletion
+      // Mark for deletion, then remove account data in the background
       SynchronizedEveAccount.deleteAccount(user, aid);
+      SyncAccountCache.invalidate(user, aid);
+      AccountCleanupJob job = AccountCleanupJobs.submit(SyncAccountCache.getSynchronizedAccount(user, aid, true));
       return Response.ok()
+                     .entity(job)
                      .build();
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
@@ -377,7 +400,65 @@ public class AccountWS {
   }
 
   /**
-   * Restore an account marked for deletion.
+   * Get the status of the cleanup job for a deleted sync account.
+   *
+   * @param request incoming HTTP request
+   * @param uid     requesting user, or -1 for the currently logged in user
+   * @param aid     deleted account
+   * @return status of the most recent cleanup job for the account
+   */
+  @Path("/account_cleanup/{uid}/{aid}")
+  @GET
+  @ApiOperation(
+      value = "Get the status of the background cleanup of a deleted sync account",
+      notes = "Cleanup removes sync trackers, then access keys in batches, then clears the account's disabled flag.  Only recent jobs run by this server are known.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "cleanup job status",
+              response = AccountCleanupJob.class),
+          @ApiResponse(
+              code = 401,
+              message = "either the requestor is not logged in, or requesting for other than logged in user but requestor not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "requesting for other than logged in user, but target user not found; or, no cleanup job known for the account",
+              response = ServiceError.class),
+      })
+  public Response getAccountCleanup(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user owning the deleted account.  Set to -1 for the current logged in user.") long uid,
+      @PathParam("aid") @ApiParam(
+          name = "aid",
+          required = true,
+          value = "ID of deleted sync account") long aid) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    long owner = uid == -1 ? user.getID() : uid;
+    AccountCleanupJob job = AccountCleanupJobs.getJob(aid);
+    if (job == null || job.getUid() != owner) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "No cleanup job found for account");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    }
+    return Response.ok()
+                   .entity(job)
+                   .build();
+  }
+
+  /**
+   * Restore an account marked for deletion.  Any queued or running cleanup of the account is cancelled once the account
+   * is restored, but data already removed by cleanup is not restored.
    *
    * @param request incoming HTTP request
    * @param uid     requesting user, or -1 to use current logged in user
@@ -401,6 +482,10 @@ public class AccountWS {
               code = 404,
               message = "requesting for other than logged in user, but target user not found; or, restoring an existing account but target account not found",
               response = ServiceError.class),
+          @ApiResponse(
+              code = 409,
+              message = "cleanup of the account has already removed access keys, so it can no longer be restored",
+              response = ServiceError.class),
           @ApiResponse(
               code = 500,
               message = "Internal account service service error",
@@ -417,17 +502,33 @@ public class AccountWS {
           required = true,
           value = "ID of sync account to restore.") long aid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
-
-      // Restore and return
-      SynchronizedEveAccount.restoreAccount(user, aid);
+      if (uid != -1) user = UserCache.getUser(uid);
+
+      // Resolve the account first so only the owner can restore it or cancel its cleanup.  Cleanup is stopped before
+      // the restore, and resubmitted if the restore fails.  A cleanup batch already running checks under lock that the
+      // account is still marked for deletion, so it removes nothing once the restore commits.
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
+      if (!AccountCleanupJobs.cancelForRestore(account.getAid())) {
+        ServiceError errMsg = new ServiceError(Status.CONFLICT.getStatusCode(), "Account data has already been removed, account can not be restored");
+        return Response.status(Status.CONFLICT)
+                       .entity(errMsg)
+                       .build();
+      }
+      boolean restored = false;
+      try {
+        SynchronizedEveAccount.restoreAccount(user, account.getAid());
+        restored = true;
+      } finally {
+        if (!restored && account.getMarkedForDelete() > 0) AccountCleanupJobs.submit(account);
+      }
+      SyncAccountCache.invalidate(user, aid);
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -471,6 +572,9 @@ public class AccountWS {
               message = "list of access keys",
               response = SynchronizedAccountAccessKey.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 401,
               message = "requesting for other than logged in user but requestor not logged in or not an admin",
@@ -499,17 +603,17 @@ public class AccountWS {
           required = true,
           value = "ID of access key to retrieve, or -1 to retrieve all access keys for the given account.") long kid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Target account required - find it
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Retrieve either target key or all keys
       List<SynchronizedAccountAccessKey> result = new ArrayList<>();
@@ -519,16 +623,10 @@ public class AccountWS {
         result.addAll(SynchronizedAccountAccessKey.getAllKeys(account));
 
       // Make sure transient fields are properly generated before returning result
-      for (SynchronizedAccountAccessKey nextKey : result) {
-        nextKey.generateMaskValue();
-        nextKey.generateMaskValueString();
-        nextKey.generateCredential();
-      }
+      result.replaceAll(AccessKeyCache::withDerivedFields);
 
       // Finish
-      return Response.ok()
-                     .entity(result)
-                     .build();
+      return ConditionalResponse.ok(request, result);
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
       return Response.status(Status.NOT_FOUND)
@@ -620,17 +718,17 @@ public class AccountWS {
     }
 
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Target account required - find it
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Incoming access mask is ignored. Instead we read the maskValueString and convert to an appropriate byte array
       byte[] maskUpload = AccountAccessMask.unstringifyMask(key.getMaskValueString());
@@ -640,17 +738,18 @@ public class AccountWS {
       if (kid == -1) {
         // Create new account
         result = SynchronizedAccountAccessKey.createKey(account, key.getKeyName(), key.getExpiry(), key.getLimit(), maskUpload);
+        AccessKeyVerifier.invalidateMissing();
       } else {
         // Update - find the key
         SynchronizedAccountAccessKey existing = SynchronizedAccountAccessKey.getKeyByOwnerAndID(account, kid);
 
         // Update from passed value - legal changes are: name, expiry, limit, accessMask
         result = SynchronizedAccountAccessKey.updateKey(account, existing.getKeyName(), key.getKeyName(), key.getExpiry(), key.getLimit(), maskUpload);
+        AccessKeyCache.invalidate(kid);
+        AccessKeyVerifier.invalidate(existing.getAccessKey());
       }
       // Make sure transient values are generated properly before returning result
-      result.generateMaskValue();
-      result.generateMaskValueString();
-      result.generateCredential();
+      result = AccessKeyCache.withDerivedFields(result);
 
       return Response.ok()
                      .entity(result)
@@ -740,23 +839,26 @@ public class AccountWS {
           required = true,
           value = "ID of access key to delete.") long kid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Target account required - find it
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, false);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, false);
 
       // Target key required - find it
-      SynchronizedAccountAccessKey.getKeyByOwnerAndID(account, kid);
+      SynchronizedAccountAccessKey existing = SynchronizedAccountAccessKey.getKeyByOwnerAndID(account, kid);
 
       // Delete and return
       SynchronizedAccountAccessKey.deleteKey(account, kid);
+      AccessKeyCache.invalidate(kid);
+      AccessKeyVerifier.invalidate(existing.getAccessKey());
+      AccessKeyUsage.forget(existing);
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -786,6 +888,159 @@ public class AccountWS {
     }
   }
 
+  /**
+   * Get usage of access keys.
+   *
+   * @param request incoming HTTP request
+   * @param uid     user for which key usage will be retrieved
+   * @param aid     account for which key usage will be retrieved
+   * @param kid     specific key to retrieve, or -1 to retrieve all keys
+   * @return usage of the requested keys
+   */
+  @Path("/key_usage/{uid}/{aid}/{kid}")
+  @GET
+  @ApiOperation(
+      value = "Get usage of access keys for the given user and account id, with the limit and expiry of each key")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "list of key usage",
+              response = KeyUsage.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting for other than logged in user but requestor not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "specified user, sync account, or access key not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response getKeyUsage(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user for which key usage will be retrieved.  Set to -1 to retrieve for the current logged in user.") long uid,
+      @PathParam("aid") @ApiParam(
+          name = "aid",
+          required = true,
+          value = "ID of sync account for which key usage will be retrieved.") long aid,
+      @PathParam("kid") @ApiParam(
+          name = "kid",
+          required = true,
+          value = "ID of access key for which usage will be retrieved, or -1 to retrieve usage for all access keys for the given account.") long kid) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    try {
+      // Ensure we have proper user
+      if (uid != -1) user = UserCache.getUser(uid);
+
+      // Target account required - find it
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
+
+      // Retrieve either target key or all keys
+      List<SynchronizedAccountAccessKey> keys = new ArrayList<>();
+      if (kid != -1)
+        keys.add(SynchronizedAccountAccessKey.getKeyByOwnerAndID(account, kid));
+      else
+        keys.addAll(SynchronizedAccountAccessKey.getAllKeys(account));
+
+      List<KeyUsage> result = new ArrayList<>();
+      for (SynchronizedAccountAccessKey next : keys) result.add(AccessKeyUsage.getUsage(next));
+      return Response.ok()
+                     .entity(result)
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (AccessKeyNotFoundException e) {
+      // Requested access key could not be found
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Key with given ID not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (AccountNotFoundException e) {
+      // Owning account not found
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target account not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving key usage, contact admin if this problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  /**
+   * Verify an access key credential.
+   *
+   * @param accesskey ID of the access key to verify
+   * @param hash      credential presented for the key
+   * @return the result of verification
+   */
+  @Path("/verify_key")
+  @GET
+  @ApiOperation(
+      value = "Verify an access key credential.  Returns validity, expiry and access mask of the key.  Expiry and mask are only returned if the credential matches.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "verification result",
+              response = KeyVerification.class),
+          @ApiResponse(
+              code = 400,
+              message = "access key or credential missing",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response verifyAccessKey(
+      @QueryParam("accesskey") @ApiParam(
+          name = "accesskey",
+          required = true,
+          value = "ID of access key to verify") Integer accesskey,
+      @QueryParam("hash") @ApiParam(
+          name = "hash",
+          required = true,
+          value = "Credential presented for the access key") String hash) {
+    if (accesskey == null || hash == null) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Both accesskey and hash are required");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    try {
+      return Response.ok()
+                     .entity(AccessKeyVerifier.verify(accesskey, hash))
+                     .build();
+    } catch (IOException e) {
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error verifying access key, contact admin if this problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
   /**
    * Get the last source used to login for the specified user (or currently logged in user).
    *
@@ -823,14 +1078,14 @@ public class AccountWS {
           required = true,
           value = "ID of user account for which the last source will be retrieved.  Set to -1 to retrieve for the current logged in user.") long uid) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Retrieve and return source
       EveKitUserAuthSource src = EveKitUserAuthSource.getLastUsedSource(user);
@@ -870,6 +1125,9 @@ public class AccountWS {
               message = "List of all user auth sources, or empty list",
               response = EveKitUserAuthSource.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 401,
               message = "requesting source for other than local user, but requestor not an admin",
@@ -890,14 +1148,14 @@ public class AccountWS {
           required = true,
           value = "ID of user account for which all sources will be retrieved.  Set to -1 to retrieve for the current logged in user.") long uid) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Look up sources
       List<EveKitUserAuthSource> result = EveKitUserAuthSource.getAllSources(user);
@@ -909,9 +1167,7 @@ public class AccountWS {
                        .build();
       }
       List<EveKitUserAuthSource> sources = new ArrayList<>(result);
-      return Response.ok()
-                     .entity(sources)
-                     .build();
+      return ConditionalResponse.ok(request, sources);
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
       return Response.status(Status.NOT_FOUND)
@@ -947,24 +1203,70 @@ public class AccountWS {
   public Response getUser(
       @Context HttpServletRequest request) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     return Response.ok()
                    .entity(user)
                    .build();
   }
 
   /**
-   * List all users who have authenticated at least once with the site.
+   * Retrieve sync account cache metrics.
    * This is an admin only service.
    *
    * @param request incoming HTTP request
-   * @return the list of all authenticated users.
+   * @return current sync account cache metrics
+   */
+  @Path("/sync_account_cache_stats")
+  @GET
+  @ApiOperation(
+      value = "Retrieve sync account cache metrics",
+      notes = "Returns size, hit, miss, expiration, eviction and invalidation counts for the sync account lookup cache")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "sync account cache metrics",
+              response = CacheStats.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+      })
+  public Response getSyncAccountCacheStats(
+      @Context HttpServletRequest request) {
+    // Retrieve current logged in user
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
+    if (admin == null || !admin.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or not an admin");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+    return Response.ok()
+                   .entity(SyncAccountCache.getStats())
+                   .build();
+  }
+
+  /**
+   * List users who have authenticated at least once with the site, optionally filtered.  If a maximum number of
+   * results is given, a single page is returned along with a cursor for the next page.  Otherwise, all matching
+   * users are streamed.
+   * This is an admin only service.
+   *
+   * @param request         incoming HTTP request
+   * @param after           only list users with an ID greater than this ID
+   * @param maxResults      maximum number of users to return, or 0 to stream all matching users
+   * @param active          if not null, only list users with this active state
+   * @param isAdmin         if not null, only list users with this admin state
+   * @param createdSince    if positive, only list users created at or after this time
+   * @param lastSignOnSince if positive, only list users who last signed on at or after this time
+   * @return the list of matching users.
    */
   @Path("/list_users")
   @GET
   @ApiOperation(
-      value = "List all site users",
-      notes = "List all site users")
+      value = "List site users",
+      notes = "List site users in increasing user ID order, optionally filtered.  If maxresults is set, a single page is returned and the " + NEXT_CURSOR_HEADER + " header holds the \"after\" value for the next page when the page is full.  Otherwise all matching users are streamed.")
   @ApiResponses(
       value = {
           @ApiResponse(
@@ -982,29 +1284,59 @@ public class AccountWS {
               response = ServiceError.class),
       })
   public Response listUsers(
-      @Context HttpServletRequest request) {
+      @Context HttpServletRequest request,
+      @QueryParam("after") @DefaultValue("-1") @ApiParam(
+          name = "after",
+          defaultValue = "-1",
+          value = "Optional user ID after which users will be listed") long after,
+      @QueryParam("maxresults") @ApiParam(
+          name = "maxresults",
+          value = "Optional maximum number of users to return.  If not set, all matching users are streamed.") int maxResults,
+      @QueryParam("active") @ApiParam(
+          name = "active",
+          value = "Optional filter on user active state") Boolean active,
+      @QueryParam("admin") @ApiParam(
+          name = "admin",
+          value = "Optional filter on user admin state") Boolean isAdmin,
+      @QueryParam("createdsince") @DefaultValue("-1") @ApiParam(
+          name = "createdsince",
+          defaultValue = "-1",
+          value = "Optional filter: only list users created at or after this time") long createdSince,
+      @QueryParam("lastsignonsince") @DefaultValue("-1") @ApiParam(
+          name = "lastsignonsince",
+          defaultValue = "-1",
+          value = "Optional filter: only list users who last signed on at or after this time") long lastSignOnSince) {
     // Retrieve current logged in user
-    EveKitUserAccount admin = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
     if (admin == null || !admin.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or not an admin");
       return Response.status(Status.UNAUTHORIZED)
                      .entity(errMsg)
                      .build();
     }
-    // Retrieve list and finish
-    try {
-      List<EveKitUserAccount> allUsers = EveKitUserAccount.getAllAccounts();
-      if (allUsers == null) {
-        ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving user list, check logs");
-        return Response.status(Status.INTERNAL_SERVER_ERROR)
-                       .entity(errMsg)
-                       .build();
-      }
+    UserQuery query = new UserQuery(active, isAdmin, createdSince, lastSignOnSince);
+
+    // Stream all matching users if no page size is given
+    if (maxResults <= 0) {
+      StreamingJsonArray<EveKitUserAccount> results = new StreamingJsonArray<>(
+          (last, max) -> query.getPage(last == null ? after : last.getID(), max),
+          Integer.MAX_VALUE, StreamingJsonArray.DEF_PAGE_SIZE);
       return Response.ok()
-                     .entity(allUsers)
+                     .entity(results)
                      .build();
+    }
+
+    // Retrieve page and finish
+    try {
+      maxResults = Math.min(maxResults, MAX_USER_PAGE);
+      List<EveKitUserAccount> page = query.getPage(after, maxResults);
+      Response.ResponseBuilder builder = Response.ok();
+      if (page.size() == maxResults) builder.header(NEXT_CURSOR_HEADER, page.get(page.size() - 1)
+                                                                           .getID());
+      return builder.entity(page)
+                    .build();
     } catch (IOException e) {
-      // Error retrieving key list
+      // Error retrieving user list
       ServiceError errMsg = new ServiceError(
           Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving user list");
       return Response.status(Status.INTERNAL_SERVER_ERROR)
@@ -1013,6 +1345,7 @@ public class AccountWS {
     }
   }
 
+
   /**
    * Change disabled status of a synchronized account.  This setting is set in a persistent property
    * and is not stored in the account itself.
@@ -1060,20 +1393,20 @@ public class AccountWS {
           required = true,
           value = "account disabled status") boolean disabled) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       // Retrieve target account
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Change state and finish
-      PersistentProperty.setProperty(account, "disabled", String.valueOf(disabled));
+      AccountDisabledFlags.setDisabled(account, disabled);
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -1096,71 +1429,74 @@ public class AccountWS {
     }
   }
 
-  @Path("/is_account_disabled/{uid}/{aid}")
-  @GET
+  /**
+   * Change the disabled state of many synchronized accounts of a user.
+   *
+   * @param request  incoming HTTP request
+   * @param uid      user owning the accounts.  Set to -1 for the current logged in user.
+   * @param disabled new disabled state
+   * @param aids     optional IDs of accounts to change.  If not set, all accounts of the user are changed.
+   * @return per-account results.
+   */
+  @Path("/set_accounts_disabled/{uid}/{disabled}")
+  @POST
   @ApiOperation(
-      value = "Check whether a synchronized account is disabled")
+      value = "Change the disabled state of many synchronized accounts of a user",
+      notes = "Changes the disabled state of every account of a user, or only the listed accounts.  Accounts are changed in batches, one transaction per batch, and per-account results are returned once every account has been processed.")
   @ApiResponses(
       value = {
           @ApiResponse(
               code = 200,
-              message = "status returned successfully"),
+              message = "per-account results",
+              response = BulkDisableItem.class,
+              responseContainer = "array"),
           @ApiResponse(
               code = 401,
               message = "requesting user not authenticated or not an admin",
               response = ServiceError.class),
           @ApiResponse(
               code = 404,
-              message = "User with the specified ID not found, or account with specified ID not found",
+              message = "User with the specified ID not found",
               response = ServiceError.class),
           @ApiResponse(
               code = 500,
               message = "Internal account service service error",
               response = ServiceError.class),
       })
-  public Response isAccountDisabled(
+  public Response setAccountsDisabled(
       @Context HttpServletRequest request,
       @PathParam("uid") @ApiParam(
           name = "uid",
           required = true,
-          value = "ID of user account to toggle") long uid,
-      @PathParam("aid") @ApiParam(
-          name = "aid",
+          value = "ID of user owning accounts.  Set to -1 for the current logged in user.") long uid,
+      @PathParam("disabled") @ApiParam(
+          name = "disabled",
           required = true,
-          value = "ID of sync account to toggle") long aid) {
+          value = "account disabled status") boolean disabled,
+      @QueryParam("aid") @ApiParam(
+          name = "aid",
+          allowMultiple = true,
+          value = "Optional IDs of accounts to change.  If not set, all accounts of the user are changed.") List<Long> aids) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
       // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
-
-      // Retrieve target account
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      if (uid != -1) user = UserCache.getUser(uid);
 
       return Response.ok()
-                     .entity(new Object() {
-                       @SuppressWarnings("unused")
-                       public final boolean isDisabled = PersistentProperty.getBooleanPropertyWithFallback(account, "disabled", false);
-                     })
+                     .entity(BulkAccountDisabler.forUser(user, aids, disabled))
                      .build();
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
       return Response.status(Status.NOT_FOUND)
                      .entity(errMsg)
                      .build();
-    } catch (AccountNotFoundException e) {
-      // Target account not found
-      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target account not found");
-      return Response.status(Status.NOT_FOUND)
-                     .entity(errMsg)
-                     .build();
     } catch (IOException e) {
-      // Error toggling sync state
-      ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error reading account status, check logs");
+      ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error changing autosync state, check logs");
       return Response.status(Status.INTERNAL_SERVER_ERROR)
                      .entity(errMsg)
                      .build();
@@ -1168,12 +1504,211 @@ public class AccountWS {
   }
 
   /**
-   * Change the active state for a user.
+   * Change the disabled state of every synchronized account on the site.
    *
-   * @param request incoming HTTP request
-   * @param uid     user for which state will be changed
-   * @param active  new active state for user
-   * @return OK if state changed successfully.
+   * @param request  incoming HTTP request
+   * @param disabled new disabled state
+   * @return per-account results.
+   */
+  @Path("/set_all_accounts_disabled/{disabled}")
+  @POST
+  @ApiOperation(
+      value = "Change the disabled state of every synchronized account on the site",
+      notes = "Changes the disabled state of every account.  Accounts are changed in batches, one transaction per batch, and per-account results are returned once every account has been processed.  This is an admin only service.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "per-account results",
+              response = BulkDisableItem.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response setAllAccountsDisabled(
+      @Context HttpServletRequest request,
+      @PathParam("disabled") @ApiParam(
+          name = "disabled",
+          required = true,
+          value = "account disabled status") boolean disabled) {
+    // Retrieve current logged in user
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
+    if (admin == null || !admin.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or not an admin");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+    try {
+      return Response.ok()
+                     .entity(BulkAccountDisabler.forSite(disabled))
+                     .build();
+    } catch (IOException e) {
+      ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error changing autosync state, check logs");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  @Path("/is_account_disabled/{uid}/{aid}")
+  @GET
+  @ApiOperation(
+      value = "Check whether a synchronized account is disabled")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "status returned successfully"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found, or account with specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response isAccountDisabled(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account to toggle") long uid,
+      @PathParam("aid") @ApiParam(
+          name = "aid",
+          required = true,
+          value = "ID of sync account to toggle") long aid) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    try {
+      // Ensure we have proper user
+      if (uid != -1) user = UserCache.getUser(uid);
+
+      // Retrieve target account
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
+
+      return Response.ok()
+                     .entity(new Object() {
+                       @SuppressWarnings("unused")
+                       public final boolean isDisabled = AccountDisabledFlags.isDisabled(account);
+                     })
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (AccountNotFoundException e) {
+      // Target account not found
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target account not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      // Error toggling sync state
+      ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error reading account status, check logs");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  /**
+   * Check whether each synchronized account of a user is disabled.
+   *
+   * @param request incoming HTTP request
+   * @param uid     user owning the accounts.  Set to -1 for the current logged in user.
+   * @param aids    optional IDs of accounts to check.  If not set, all accounts of the user are checked.
+   * @return map from account ID to disabled state.
+   */
+  @Path("/accounts_disabled/{uid}")
+  @GET
+  @ApiOperation(
+      value = "Check whether each synchronized account of a user is disabled",
+      notes = "Returns an object mapping account ID to disabled state for every account of the user, or only for the listed accounts.  Listed accounts which don't exist are omitted.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "status returned successfully"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response areAccountsDisabled(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user owning accounts.  Set to -1 for the current logged in user.") long uid,
+      @QueryParam("aid") @ApiParam(
+          name = "aid",
+          allowMultiple = true,
+          value = "Optional IDs of accounts to check.  If not set, all accounts of the user are checked.") List<Long> aids) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    try {
+      // Ensure we have proper user
+      if (uid != -1) user = UserCache.getUser(uid);
+
+      // Retrieve all accounts in one query and select those requested
+      List<SynchronizedEveAccount> accounts = new ArrayList<>(SynchronizedEveAccount.getAllAccounts(user, true));
+      if (aids != null && !aids.isEmpty()) {
+        Set<Long> selected = new HashSet<>(aids);
+        accounts.removeIf(next -> !selected.contains(next.getAid()));
+      }
+
+      return Response.ok()
+                     .entity(AccountDisabledFlags.getDisabled(accounts))
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      ServiceError errMsg = new ServiceError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving autosync state, check logs");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  /**
+   * Change the active state for a user.
+   *
+   * @param request incoming HTTP request
+   * @param uid     user for which state will be changed
+   * @param active  new active state for user
+   * @return OK if state changed successfully.
    */
   @Path("/toggle_user_active/{uid}/{active}")
   @GET
@@ -1208,19 +1743,20 @@ public class AccountWS {
           required = true,
           value = "New active state for user") boolean active) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     try {
-      // Ensure we have proper user
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
+      // Ensure we have proper user.  Load a fresh copy since cached users are shared between requests.
+      user = EveKitUserAccount.getAccount(uid != -1 ? uid : user.getID());
 
       // Change state and finish
       user.setActive(active);
 
       EveKitUserAccount.update(user);
+      UserCache.invalidate(user.getID());
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -1264,7 +1800,7 @@ public class AccountWS {
   public Response checkAdmin(
       @Context HttpServletRequest request) {
     // Retrieve current logged in user
-    final EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    final EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     // Retrieve and return unfinished
     return Response.ok()
@@ -1291,6 +1827,9 @@ public class AccountWS {
               message = "endpoint list",
               response = ESIScopeDescription.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "endpoint list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 500,
               message = "Internal account service service error",
@@ -1298,13 +1837,7 @@ public class AccountWS {
       })
   public Response charEndpoints(
       @Context HttpServletRequest request) {
-    // Retrieve list and finish
-    List<ESIScopeDescription> results = new ArrayList<>();
-    for (ESIScope next : ESIScope.getCharScopes())
-      results.add(ESIScopeDescription.fromScope(next));
-      return Response.ok()
-                     .entity(results)
-                     .build();
+    return ESIScopeCatalogResponses.charResponse(request);
   }
 
   /**
@@ -1323,6 +1856,9 @@ public class AccountWS {
               message = "endpoint list",
               response = ESIScopeDescription.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "endpoint list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 500,
               message = "Internal account service service error",
@@ -1330,13 +1866,35 @@ public class AccountWS {
       })
   public Response corpEndpoints(
       @Context HttpServletRequest request) {
-    // Retrieve list and finish
-    List<ESIScopeDescription> results = new ArrayList<>();
-    for (ESIScope next : ESIScope.getCorpScopes())
-      results.add(ESIScopeDescription.fromScope(next));
-    return Response.ok()
-                   .entity(results)
-                   .build();
+    return ESIScopeCatalogResponses.corpResponse(request);
+  }
+
+  /**
+   * Return lists of both character and corporation ESI endpoints.
+   *
+   * @param request incoming HTTP request
+   * @return the lists of all character and corporation ESI endpoints.
+   */
+  @Path("/list_endpoints")
+  @GET
+  @ApiOperation(value = "List all character and corporation ESI endpoints")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "endpoint lists",
+              response = ESIScopeCatalog.class),
+          @ApiResponse(
+              code = 304,
+              message = "endpoint lists unchanged from the version identified by If-None-Match"),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response allEndpoints(
+      @Context HttpServletRequest request) {
+    return ESIScopeCatalogResponses.combinedResponse(request);
   }
 
 
@@ -1383,15 +1941,16 @@ public class AccountWS {
           required = true,
           value = "Content for new note.") String content) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     if (!user.isAdmin()) return createUserNotAdminResponse();
 
     // Create note
     try {
       // Create note
-      EveKitUserAccount target = EveKitUserAccount.getAccount(uid);
+      EveKitUserAccount target = UserCache.getUser(uid);
       EveKitUserNotification newNote = EveKitUserNotification.makeNote(target, content);
+      NoteWaiters.notifyUser(target.getID());
       return Response.ok()
                      .entity(newNote)
                      .build();
@@ -1411,17 +1970,17 @@ public class AccountWS {
   }
 
   /**
-   * Create a new notification for all active users.  Only administrators may broadcast
-   * notifications.
+   * Create a new notification for all users.  Only administrators may broadcast
+   * notifications.  Users created after the broadcast do not see it.
    *
    * @param request incoming HTTP request
    * @param content content of new notification
-   * @return OK if the notification was created successfully for all active users.
+   * @return OK if the notification was created successfully.
    */
   @Path("/note_all/")
   @POST
   @ApiOperation(
-      value = "Broadcast a notification to all active users")
+      value = "Broadcast a notification to all users")
   @ApiResponses(
       value = {
           @ApiResponse(
@@ -1443,17 +2002,22 @@ public class AccountWS {
           required = true,
           value = "Content for new note.") String content) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     if (!user.isAdmin()) return createUserNotAdminResponse();
 
     // Create note
     try {
-      // Create note(s)
-      for (EveKitUserAccount next : EveKitUserAccount.getAllAccounts()) {
-        if (!next.isActive()) continue;
-        EveKitUserNotification.makeNote(next, content);
+      if (BroadcastNotes.isEnabled()) {
+        // Broadcasts are stored once and merged into each user's notes when read
+        BroadcastNotes.create(content);
+      } else {
+        for (EveKitUserAccount next : EveKitUserAccount.getAllAccounts()) {
+          if (!next.isActive()) continue;
+          EveKitUserNotification.makeNote(next, content);
+        }
       }
+      NoteWaiters.notifyAllUsers();
       return Response.ok()
                      .build();
     } catch (IOException e) {
@@ -1467,7 +2031,7 @@ public class AccountWS {
   }
 
   /**
-   * Get the list of undeleted notifications for a specific user.  Only admins
+   * Get the list of undeleted notifications for a specific user, including broadcasts.  Only admins
    * or the requested user may retrieve the notification list.
    *
    * @param request incoming HTTP request
@@ -1483,8 +2047,11 @@ public class AccountWS {
           @ApiResponse(
               code = 200,
               message = "note successfully created",
-              response = EveKitUserNotification.class,
+              response = UserNote.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 304,
+              message = "list unchanged from the version identified by If-None-Match"),
           @ApiResponse(
               code = 401,
               message = "requesting user not logged in or not an admin",
@@ -1505,18 +2072,20 @@ public class AccountWS {
           required = true,
           value = "ID of user account for which notifications will be retrieved") long uid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     // Retrieve notes
     try {
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
-      List<EveKitUserNotification> notes = EveKitUserNotification.getAllNotes(user);
-      return Response.ok()
-                     .entity(notes)
-                     .build();
+      if (uid != -1) user = UserCache.getUser(uid);
+      List<UserNote> notes = new ArrayList<>();
+      for (EveKitUserNotification next : EveKitUserNotification.getAllNotes(user))
+        notes.add(UserNote.fromNote(next));
+      if (BroadcastNotes.isEnabled()) notes.addAll(BroadcastNotes.getNotes(user));
+      notes.sort(Comparator.comparingLong(UserNote::getNoteTime));
+      return ConditionalResponse.ok(request, notes);
     } catch (UserNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
       return Response.status(Status.NOT_FOUND)
@@ -1532,12 +2101,252 @@ public class AccountWS {
     }
   }
 
+  /**
+   * Get a page of undeleted notifications for a specific user, including broadcasts, newest first.  Only admins
+   * or the requested user may retrieve notifications.
+   *
+   * @param request    incoming HTTP request
+   * @param uid        user for which notifications will be returned
+   * @param before     cursor returned with the previous page, or null for the first page
+   * @param maxResults maximum number of notifications to return
+   * @return a page of undeleted notifications for the specified user
+   */
+  @Path("/note_page/{uid}")
+  @GET
+  @ApiOperation(
+      value = "Retrieve a page of undeleted notifications for a user, newest first",
+      notes = "When the page is full, the " + NEXT_CURSOR_HEADER + " header holds the \"before\" value for the next page.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "page of notifications",
+              response = UserNote.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response listNotificationPage(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account for which notifications will be retrieved.  Set to -1 to retrieve for the current logged in user.") long uid,
+      @QueryParam("before") @ApiParam(
+          name = "before",
+          value = "Cursor returned with the previous page.  Omit to retrieve the newest notifications.") String before,
+      @QueryParam("maxresults") @DefaultValue("" + DEF_NOTE_PAGE) @ApiParam(
+          name = "maxresults",
+          defaultValue = "" + DEF_NOTE_PAGE,
+          value = "Maximum number of notifications to retrieve, at most " + MAX_NOTE_PAGE) int maxResults) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    try {
+      if (uid != -1) user = UserCache.getUser(uid);
+      NoteQuery query = new NoteQuery(user, before);
+      maxResults = Math.max(1, Math.min(maxResults, MAX_NOTE_PAGE));
+      List<UserNote> page = query.getPage(maxResults);
+      Response.ResponseBuilder builder = Response.ok();
+      if (page.size() == maxResults) builder.header(NEXT_CURSOR_HEADER, NoteQuery.cursorAfter(page.get(page.size() - 1)));
+      return builder.entity(page)
+                    .build();
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      // An internal error occurred while retrieving notes.
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal error retrieving notes, contact admin if problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  /**
+   * Wait for new notifications for a specific user, including broadcasts.  The request is suspended until a
+   * notification newer than the one named by the cursor exists, or until the wait times out.  Only admins or the
+   * requested user may wait for notifications.  Suspending requires the servlet serving this API to be declared with
+   * async-supported set to true.
+   *
+   * @param request  incoming HTTP request
+   * @param uid      user for which notifications will be returned
+   * @param after    cursor naming the newest notification already seen, or null to return all notifications
+   * @param response suspended response which receives the new notifications
+   */
+  @Path("/note_wait/{uid}")
+  @GET
+  @ApiOperation(
+      value = "Wait for new notifications for a user",
+      notes = "Returns undeleted notifications newer than the one named by \"after\", oldest first, as soon as any exist.  Returns an empty list if none arrive before the wait times out.  When notifications are returned, the " + NEXT_CURSOR_HEADER + " header holds the \"after\" value for the next wait.  The servlet serving this API must be declared with async-supported set to true.",
+      response = UserNote.class,
+      responseContainer = "array")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "new notifications, or an empty list on timeout",
+              response = UserNote.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 503,
+              message = "too many waiting clients",
+              response = ServiceError.class),
+      })
+  public void waitForNotifications(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account for which notifications will be retrieved.  Set to -1 to wait for the current logged in user.") long uid,
+      @QueryParam("after") @ApiParam(
+          name = "after",
+          value = "Cursor returned with the previous wait.  Omit to return all notifications.") String after,
+      @Suspended AsyncResponse response) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) {
+      response.resume(createUserNotLoggedResponse());
+      return;
+    }
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) {
+      response.resume(error);
+      return;
+    }
+
+    try {
+      if (uid != -1) user = UserCache.getUser(uid);
+      NoteWaiters.await(user, new NoteQuery(user, after), response);
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      response.resume(Response.status(Status.BAD_REQUEST)
+                              .entity(errMsg)
+                              .build());
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      response.resume(Response.status(Status.NOT_FOUND)
+                              .entity(errMsg)
+                              .build());
+    } catch (IOException e) {
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal error retrieving notes, contact admin if problem persists");
+      response.resume(Response.status(Status.INTERNAL_SERVER_ERROR)
+                              .entity(errMsg)
+                              .build());
+    }
+  }
+
+  /**
+   * Count unread, undeleted notifications for a specific user, including broadcasts.  Only admins
+   * or the requested user may count notifications.
+   *
+   * @param request incoming HTTP request
+   * @param uid     user for which notifications will be counted
+   * @return the number of unread notifications
+   */
+  @Path("/note_unread/{uid}")
+  @GET
+  @ApiOperation(
+      value = "Count unread notifications for a user")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "number of unread notifications",
+              response = UnreadNoteCount.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response countUnreadNotifications(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account for which notifications will be counted.  Set to -1 to count for the current logged in user.") long uid) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    try {
+      if (uid != -1) user = UserCache.getUser(uid);
+      return Response.ok()
+                     .entity(new UnreadNoteCount(NoteQuery.countUnread(user)))
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      // An internal error occurred while counting notes.
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal error counting notes, contact admin if problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
   /**
    * Mark a notification as read for a specific user.
    *
    * @param request incoming HTTP request
    * @param uid     user for which notification will be marked read
-   * @param nid     notification ID of notification to mark as read
+   * @param nid     notification ID of notification to mark as read, negative for a broadcast
    * @return OK if the note is successfully marked read
    */
   @SuppressWarnings("Duplicates")
@@ -1572,17 +2381,26 @@ public class AccountWS {
       @PathParam("nid") @ApiParam(
           name = "nid",
           required = true,
-          value = "Notification ID of note to be marked read") long nid) {
+          value = "Notification ID of note to be marked read.  Broadcasts have negative IDs.") long nid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     // Retrieve notes
     try {
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
-      EveKitUserNotification.markNoteRead(user, nid);
+      if (uid != -1) user = UserCache.getUser(uid);
+      if (UserNote.isBroadcastID(nid)) {
+        if (!BroadcastNotes.isEnabled() || !BroadcastNotes.markRead(user, UserNote.toBroadcastID(nid))) {
+          ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Note with given ID not found");
+          return Response.status(Status.NOT_FOUND)
+                         .entity(errMsg)
+                         .build();
+        }
+      } else {
+        EveKitUserNotification.markNoteRead(user, nid);
+      }
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -1605,7 +2423,7 @@ public class AccountWS {
    *
    * @param request incoming HTTP request
    * @param uid     user for which notification will be marked trash
-   * @param nid     notification ID of notification to mark as trash
+   * @param nid     notification ID of notification to mark as trash, negative for a broadcast
    * @return OK if the note is successfully marked trash
    */
   @Path("/note/trash/{uid}/{nid}")
@@ -1639,17 +2457,26 @@ public class AccountWS {
       @PathParam("nid") @ApiParam(
           name = "nid",
           required = true,
-          value = "Notification ID of note to be marked trash")long nid) {
+          value = "Notification ID of note to be marked trash.  Broadcasts have negative IDs.") long nid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return createUserNotLoggedResponse();
     Response error = checkRequireAdmin(user, uid);
     if (error != null) return error;
 
     // Retrieve notes
     try {
-      if (uid != -1) user = EveKitUserAccount.getAccount(uid);
-      EveKitUserNotification.markNoteDeleted(user, nid);
+      if (uid != -1) user = UserCache.getUser(uid);
+      if (UserNote.isBroadcastID(nid)) {
+        if (!BroadcastNotes.isEnabled() || !BroadcastNotes.markDeleted(user, UserNote.toBroadcastID(nid))) {
+          ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Note with given ID not found");
+          return Response.status(Status.NOT_FOUND)
+                         .entity(errMsg)
+                         .build();
+        }
+      } else {
+        EveKitUserNotification.markNoteDeleted(user, nid);
+      }
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -1667,4 +2494,142 @@ public class AccountWS {
     }
   }
 
+  /**
+   * Mark many notifications as read for a specific user.  Notifications are selected either by ID or by time.
+   *
+   * @param request   incoming HTTP request
+   * @param uid       user for which notifications will be marked read
+   * @param selection notifications to mark, either by ID or by time
+   * @return the number of notifications changed
+   */
+  @Path("/note/read_bulk/{uid}")
+  @POST
+  @ApiOperation(
+      value = "Mark many notifications as read",
+      notes = "Select notifications in the request body either by listing IDs in \"nids\" or by setting \"through\".  All changes are made in a single transaction.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "notes successfully marked read",
+              response = UpdatedNoteCount.class),
+          @ApiResponse(
+              code = 400,
+              message = "both or neither of IDs and a time were given",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response markNotesRead(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account owning notifications to be marked read") long uid,
+      @ApiParam(
+          name = "selection",
+          required = true,
+          value = "Either \"nids\", the IDs of notifications to mark read with negative IDs for broadcasts, or \"through\", to mark every notification with a time at or before this time") NoteSelection selection) {
+    return markNotes(request, uid, selection, BulkNoteUpdater.Flag.READ);
+  }
+
+  /**
+   * Mark many notifications as trash for a specific user.  Notifications are selected either by ID or by time.
+   *
+   * @param request   incoming HTTP request
+   * @param uid       user for which notifications will be marked trash
+   * @param selection notifications to mark, either by ID or by time
+   * @return the number of notifications changed
+   */
+  @Path("/note/trash_bulk/{uid}")
+  @POST
+  @ApiOperation(
+      value = "Mark many notifications as trash",
+      notes = "Select notifications in the request body either by listing IDs in \"nids\" or by setting \"through\".  All changes are made in a single transaction.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "notes successfully marked trash",
+              response = UpdatedNoteCount.class),
+          @ApiResponse(
+              code = 400,
+              message = "both or neither of IDs and a time were given",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not logged in or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "User with the specified ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response markNotesDeleted(
+      @Context HttpServletRequest request,
+      @PathParam("uid") @ApiParam(
+          name = "uid",
+          required = true,
+          value = "ID of user account owning notifications to be marked trash") long uid,
+      @ApiParam(
+          name = "selection",
+          required = true,
+          value = "Either \"nids\", the IDs of notifications to mark trash with negative IDs for broadcasts, or \"through\", to mark every notification with a time at or before this time") NoteSelection selection) {
+    return markNotes(request, uid, selection, BulkNoteUpdater.Flag.TRASH);
+  }
+
+  private static Response markNotes(HttpServletRequest request, long uid, NoteSelection selection,
+                                    BulkNoteUpdater.Flag flag) {
+    // Retrieve user and verify as needed
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return createUserNotLoggedResponse();
+    Response error = checkRequireAdmin(user, uid);
+    if (error != null) return error;
+
+    // Exactly one of IDs or a time must select notes
+    List<Long> nids = selection == null ? null : selection.getNids();
+    long through = selection == null ? -1 : selection.getThrough();
+    boolean haveIDs = nids != null && !nids.isEmpty();
+    if (haveIDs == (through >= 0)) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Select notes by either IDs or time, but not both");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    try {
+      if (uid != -1) user = UserCache.getUser(uid);
+      int count = haveIDs ? BulkNoteUpdater.setByID(user, flag, nids) : BulkNoteUpdater.setThrough(user, flag, through);
+      return Response.ok()
+                     .entity(new UpdatedNoteCount(count))
+                     .build();
+    } catch (UserNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target user not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      // An internal error occurred while performing the update.
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal error marking notes, contact admin if problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
 }
@@ -0,0 +1,68 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+
+import javax.persistence.*;
+
+/**
+ * Times through which every broadcast is read or in the trash for one user.  Lets a user mark all broadcasts up to a
+ * time without a {@link BroadcastNoteState} per broadcast.  Created the first time the user does so.
+ */
+@Entity
+@Table(
+    name = "evekit_broadcast_note_mark",
+    uniqueConstraints = {
+        @UniqueConstraint(
+            columnNames = {
+                "uid"
+            })
+    })
+public class BroadcastNoteMark {
+
+  @Id
+  @GeneratedValue(
+      strategy = GenerationType.SEQUENCE,
+      generator = "ek_broadcast_mark_seq")
+  @SequenceGenerator(
+      name = "ek_broadcast_mark_seq",
+      initialValue = 100000,
+      allocationSize = 10,
+      sequenceName = "broadcast_mark_sequence")
+  private long mid;
+  @ManyToOne
+  @JoinColumn(
+      name = "uid")
+  private EveKitUserAccount account;
+  private long readThrough = -1;
+  private long trashThrough = -1;
+
+  protected BroadcastNoteMark() {}
+
+  public BroadcastNoteMark(EveKitUserAccount account) {
+    this.account = account;
+  }
+
+  public long getMid() {
+    return mid;
+  }
+
+  public EveKitUserAccount getAccount() {
+    return account;
+  }
+
+  public long getReadThrough() {
+    return readThrough;
+  }
+
+  public void setReadThrough(long readThrough) {
+    this.readThrough = readThrough;
+  }
+
+  public long getTrashThrough() {
+    return trashThrough;
+  }
+
+  public void setTrashThrough(long trashThrough) {
+    this.trashThrough = trashThrough;
+  }
+}
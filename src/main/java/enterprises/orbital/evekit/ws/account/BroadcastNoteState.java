@@ -0,0 +1,81 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+
+import javax.persistence.*;
+
+/**
+ * Read and trash state of a broadcast notification for one user.  Created the first time the user changes either.
+ */
+@Entity
+@Table(
+    name = "evekit_broadcast_note_state",
+    uniqueConstraints = {
+        @UniqueConstraint(
+            columnNames = {
+                "bid", "uid"
+            })
+    },
+    indexes = {
+        @Index(
+            name = "broadcastStateAccountIndex",
+            columnList = "uid")
+    })
+public class BroadcastNoteState {
+
+  @Id
+  @GeneratedValue(
+      strategy = GenerationType.SEQUENCE,
+      generator = "ek_broadcast_state_seq")
+  @SequenceGenerator(
+      name = "ek_broadcast_state_seq",
+      initialValue = 100000,
+      allocationSize = 10,
+      sequenceName = "broadcast_state_sequence")
+  private long sid;
+  @ManyToOne
+  @JoinColumn(
+      name = "bid")
+  private BroadcastNotification broadcast;
+  @ManyToOne
+  @JoinColumn(
+      name = "uid")
+  private EveKitUserAccount account;
+  private boolean isRead;
+  private boolean isTrash;
+
+  protected BroadcastNoteState() {}
+
+  public BroadcastNoteState(BroadcastNotification broadcast, EveKitUserAccount account) {
+    this.broadcast = broadcast;
+    this.account = account;
+  }
+
+  public long getSid() {
+    return sid;
+  }
+
+  public BroadcastNotification getBroadcast() {
+    return broadcast;
+  }
+
+  public EveKitUserAccount getAccount() {
+    return account;
+  }
+
+  public boolean isRead() {
+    return isRead;
+  }
+
+  public void setRead(boolean read) {
+    isRead = read;
+  }
+
+  public boolean isTrash() {
+    return isTrash;
+  }
+
+  public void setTrash(boolean trash) {
+    isTrash = trash;
+  }
+}
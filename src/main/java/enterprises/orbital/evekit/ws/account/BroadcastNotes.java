@@ -0,0 +1,182 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores and retrieves broadcast notifications.  A broadcast is stored once and fanned out when users read their
+ * notes, so broadcasting costs the same regardless of the number of users.  A user sees every broadcast made after
+ * the user's account was created.  Stored broadcasts are only used when enabled with {@link #PROP_ENABLED}, which
+ * requires {@link BroadcastNotification}, {@link BroadcastNoteState} and {@link BroadcastNoteMark} to be registered
+ * in the account persistence unit.  Otherwise a broadcast is copied to every active user as a personal note.
+ */
+public class BroadcastNotes {
+  private static final Logger log = Logger.getLogger(BroadcastNotes.class.getName());
+
+  // Set to true to store broadcasts once.  Off by default since the broadcast tables must be deployed first.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_ENABLED = "enterprises.orbital.evekit.accountws.broadcastNotes.enabled";
+  @SuppressWarnings("WeakerAccess")
+  public static final boolean DEF_ENABLED = false;
+
+  private interface Update {
+    void apply(BroadcastNoteState state);
+  }
+
+  /**
+   * Check whether broadcasts are stored once.
+   *
+   * @return true if broadcasts are stored once, false if they are copied to every user
+   */
+  public static boolean isEnabled() {
+    return OrbitalProperties.getBooleanGlobalProperty(PROP_ENABLED, DEF_ENABLED);
+  }
+
+  /**
+   * Create a new broadcast.
+   *
+   * @param content content of the broadcast
+   * @return the new broadcast
+   * @throws IOException on any error storing the broadcast
+   */
+  public static BroadcastNotification create(String content) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        BroadcastNotification note = new BroadcastNotification(OrbitalProperties.getCurrentTime(), content);
+                                        EveKitUserAccountProvider.getFactory()
+                                                                 .getEntityManager()
+                                                                 .persist(note);
+                                        return note;
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  // Lock the user's account row until commit.  Taken before creating broadcast states or watermarks so that concurrent
+  // first changes for the same user are serialized instead of both inserting and violating a unique constraint.
+  static void lockUser(EntityManager em, EveKitUserAccount user) {
+    em.find(EveKitUserAccount.class, user.getID(), LockModeType.PESSIMISTIC_WRITE);
+  }
+
+  // Retrieve the user's broadcast watermarks.  The result is not persisted if the user has never set either
+  // watermark.  Must be called within a transaction.
+  static BroadcastNoteMark getMark(EveKitUserAccount user) {
+    TypedQuery<BroadcastNoteMark> query = EveKitUserAccountProvider.getFactory()
+                                                                   .getEntityManager()
+                                                                   .createQuery("SELECT c FROM BroadcastNoteMark c WHERE c.account = :user", BroadcastNoteMark.class);
+    query.setParameter("user", user);
+    List<BroadcastNoteMark> found = query.getResultList();
+    return found.isEmpty() ? new BroadcastNoteMark(user) : found.get(0);
+  }
+
+  private static Map<Long, BroadcastNoteState> getStates(EveKitUserAccount user) {
+    TypedQuery<BroadcastNoteState> query = EveKitUserAccountProvider.getFactory()
+                                                                    .getEntityManager()
+                                                                    .createQuery("SELECT c FROM BroadcastNoteState c WHERE c.account = :user", BroadcastNoteState.class);
+    query.setParameter("user", user);
+    Map<Long, BroadcastNoteState> states = new HashMap<>();
+    for (BroadcastNoteState next : query.getResultList()) states.put(next.getBroadcast()
+                                                                         .getBid(), next);
+    return states;
+  }
+
+  /**
+   * Retrieve the broadcasts a user has not moved to the trash.
+   *
+   * @param user user for which broadcasts will be retrieved
+   * @return the user's broadcasts in increasing time order
+   * @throws IOException on any error retrieving broadcasts
+   */
+  public static List<UserNote> getNotes(EveKitUserAccount user) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        TypedQuery<BroadcastNotification> query = EveKitUserAccountProvider.getFactory()
+                                                                                                           .getEntityManager()
+                                                                                                           .createQuery("SELECT c FROM BroadcastNotification c WHERE c.noteTime >= :created AND c.noteTime > :trashThrough ORDER BY c.noteTime ASC, c.bid ASC", BroadcastNotification.class);
+                                        BroadcastNoteMark mark = getMark(user);
+                                        query.setParameter("created", user.getCreated());
+                                        query.setParameter("trashThrough", mark.getTrashThrough());
+                                        Map<Long, BroadcastNoteState> states = getStates(user);
+                                        List<UserNote> result = new ArrayList<>();
+                                        for (BroadcastNotification next : query.getResultList()) {
+                                          BroadcastNoteState state = states.get(next.getBid());
+                                          if (state != null && state.isTrash()) continue;
+                                          boolean read = next.getNoteTime() <= mark.getReadThrough() || (state != null && state.isRead());
+                                          result.add(UserNote.fromBroadcast(next, read));
+                                        }
+                                        return result;
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static boolean update(EveKitUserAccount user, long bid, Update update) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                    .getEntityManager();
+                                        BroadcastNotification note = em.find(BroadcastNotification.class, bid);
+                                        if (note == null || note.getNoteTime() < user.getCreated()) return false;
+                                        lockUser(em, user);
+                                        TypedQuery<BroadcastNoteState> query = em.createQuery("SELECT c FROM BroadcastNoteState c WHERE c.broadcast = :note AND c.account = :user", BroadcastNoteState.class);
+                                        query.setParameter("note", note);
+                                        query.setParameter("user", user);
+                                        List<BroadcastNoteState> found = query.getResultList();
+                                        BroadcastNoteState state = found.isEmpty() ? new BroadcastNoteState(note, user) : found.get(0);
+                                        update.apply(state);
+                                        if (found.isEmpty()) em.persist(state);
+                                        return true;
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Mark a broadcast as read for a user.
+   *
+   * @param user user for which the broadcast will be marked
+   * @param bid  ID of the broadcast
+   * @return false if the broadcast does not exist or is not visible to the user
+   * @throws IOException on any error updating the broadcast
+   */
+  public static boolean markRead(EveKitUserAccount user, long bid) throws IOException {
+    return update(user, bid, state -> state.setRead(true));
+  }
+
+  /**
+   * Move a broadcast to the trash for a user.
+   *
+   * @param user user for which the broadcast will be moved
+   * @param bid  ID of the broadcast
+   * @return false if the broadcast does not exist or is not visible to the user
+   * @throws IOException on any error updating the broadcast
+   */
+  public static boolean markDeleted(EveKitUserAccount user, long bid) throws IOException {
+    return update(user, bid, state -> state.setTrash(true));
+  }
+
+}
@@ -0,0 +1,52 @@
+package enterprises.orbital.evekit.ws.account;
+
+import javax.persistence.*;
+
+/**
+ * A notification sent to every user.  A broadcast is stored once.  Read and trash state is recorded per user in
+ * {@link BroadcastNoteState} only once a user changes it.
+ */
+@Entity
+@Table(
+    name = "evekit_broadcast_notification",
+    indexes = {
+        @Index(
+            name = "broadcastTimeIndex",
+            columnList = "noteTime")
+    })
+public class BroadcastNotification {
+
+  @Id
+  @GeneratedValue(
+      strategy = GenerationType.SEQUENCE,
+      generator = "ek_broadcast_seq")
+  @SequenceGenerator(
+      name = "ek_broadcast_seq",
+      initialValue = 100000,
+      allocationSize = 10,
+      sequenceName = "broadcast_sequence")
+  private long bid;
+  private long noteTime;
+  @Lob
+  @Column(length = 102400)
+  private String content;
+
+  protected BroadcastNotification() {}
+
+  public BroadcastNotification(long noteTime, String content) {
+    this.noteTime = noteTime;
+    this.content = content;
+  }
+
+  public long getBid() {
+    return bid;
+  }
+
+  public long getNoteTime() {
+    return noteTime;
+  }
+
+  public String getContent() {
+    return content;
+  }
+}
@@ -0,0 +1,144 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Enables or disables many sync accounts at once.  Accounts are selected by owner, by ID or site-wide, retrieved in
+ * pages by increasing account ID, and changed with one transaction per page.  Every selected account is processed
+ * before any result is returned, so the work never depends on the caller staying connected.  Progress is not
+ * reported while a request runs: the per-account results returned at the end are the report, and a page which fails
+ * is marked FAILED there so the request can simply be repeated.
+ */
+public class BulkAccountDisabler {
+  private static final Logger log = Logger.getLogger(BulkAccountDisabler.class.getName());
+
+  // Number of accounts changed per transaction
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_SIZE = "enterprises.orbital.evekit.accountws.bulkDisable.batchSize";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_SIZE = 200;
+
+  private final EveKitUserAccount user;
+  private final Set<Long> aids;
+  private final boolean disabled;
+  private long after = Long.MIN_VALUE;
+  private boolean done;
+
+  private BulkAccountDisabler(EveKitUserAccount user, Collection<Long> aids, boolean disabled) {
+    this.user = user;
+    this.aids = aids == null || aids.isEmpty() ? null : new LinkedHashSet<>(aids);
+    this.disabled = disabled;
+  }
+
+  /**
+   * Change the disabled state of accounts owned by a user.
+   *
+   * @param user     owner of the accounts
+   * @param aids     IDs of accounts to change, or null or empty to change all accounts of the user
+   * @param disabled new disabled state
+   * @return per-account results
+   * @throws IOException on any error selecting accounts
+   */
+  public static List<BulkDisableItem> forUser(EveKitUserAccount user, Collection<Long> aids, boolean disabled)
+      throws IOException {
+    return run(new BulkAccountDisabler(user, aids, disabled));
+  }
+
+  /**
+   * Change the disabled state of every account on the site.
+   *
+   * @param disabled new disabled state
+   * @return per-account results
+   * @throws IOException on any error selecting accounts
+   */
+  public static List<BulkDisableItem> forSite(boolean disabled) throws IOException {
+    return run(new BulkAccountDisabler(null, null, disabled));
+  }
+
+  private static List<BulkDisableItem> run(BulkAccountDisabler source) throws IOException {
+    int batchSize = (int) OrbitalProperties.getLongGlobalProperty(PROP_BATCH_SIZE, DEF_BATCH_SIZE);
+    if (batchSize <= 0) batchSize = (int) DEF_BATCH_SIZE;
+    List<BulkDisableItem> results = new ArrayList<>();
+    List<BulkDisableItem> batch;
+    while (!(batch = source.nextBatch(batchSize)).isEmpty()) results.addAll(batch);
+    return results;
+  }
+
+  private List<SynchronizedEveAccount> getAccounts(int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        StringBuilder ql = new StringBuilder("SELECT c FROM SynchronizedEveAccount c WHERE c.aid > :after");
+                                        if (user != null) ql.append(" AND c.userAccount = :user");
+                                        if (aids != null) ql.append(" AND c.aid IN :aids");
+                                        ql.append(" ORDER BY c.aid ASC");
+                                        TypedQuery<SynchronizedEveAccount> query = EveKitUserAccountProvider.getFactory()
+                                                                                                            .getEntityManager()
+                                                                                                            .createQuery(ql.toString(), SynchronizedEveAccount.class);
+                                        query.setParameter("after", after);
+                                        if (user != null) query.setParameter("user", user);
+                                        if (aids != null) query.setParameter("aids", aids);
+                                        query.setMaxResults(maxResults);
+                                        return query.getResultList();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Change the next page of accounts.
+   *
+   * @param maxResults maximum number of accounts to change
+   * @return results for the page, or an empty list once all accounts have been processed
+   * @throws IOException on any error selecting accounts
+   */
+  private List<BulkDisableItem> nextBatch(int maxResults) throws IOException {
+    // Stop once every requested account has been found, since an empty ID list can't be queried
+    if (done || (aids != null && aids.isEmpty())) return Collections.emptyList();
+    List<SynchronizedEveAccount> page = getAccounts(maxResults);
+    if (page.isEmpty()) {
+      done = true;
+      // Report requested accounts which were never found
+      List<BulkDisableItem> missing = new ArrayList<>();
+      if (aids != null) for (Long aid : aids)
+        missing.add(new BulkDisableItem(user.getID(), aid, BulkDisableItem.Result.NOT_FOUND));
+      return missing;
+    }
+    after = page.get(page.size() - 1)
+                .getAid();
+
+    // Only accounts whose stored state differs are written, decided inside the write transaction
+    for (SynchronizedEveAccount next : page)
+      if (aids != null) aids.remove(next.getAid());
+    Set<Long> changedIDs = Collections.emptySet();
+    boolean failed = false;
+    try {
+      changedIDs = AccountDisabledFlags.setDisabled(page, disabled);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "error changing disabled state for account batch", e);
+      failed = true;
+    }
+
+    List<BulkDisableItem> results = new ArrayList<>();
+    for (SynchronizedEveAccount next : page) {
+      BulkDisableItem.Result result = failed ? BulkDisableItem.Result.FAILED :
+          changedIDs.contains(next.getAid()) ? BulkDisableItem.Result.UPDATED : BulkDisableItem.Result.UNCHANGED;
+      results.add(new BulkDisableItem(next.getUserAccount()
+                                          .getID(), next.getAid(), result));
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,33 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class BulkDisableItem {
+
+  public enum Result {
+    UPDATED,
+    UNCHANGED,
+    NOT_FOUND,
+    FAILED
+  }
+
+  private long uid;
+  private long aid;
+  private Result result;
+
+  public BulkDisableItem(long uid, long aid, Result result) {
+    this.uid = uid;
+    this.aid = aid;
+    this.result = result;
+  }
+
+  public long getUid() {
+    return uid;
+  }
+
+  public long getAid() {
+    return aid;
+  }
+
+  public Result getResult() {
+    return result;
+  }
+}
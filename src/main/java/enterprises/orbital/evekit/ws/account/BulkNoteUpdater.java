@@ -0,0 +1,177 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Marks many of a user's notes read or trash in a single transaction.  Notes are selected either by ID or by time.
+ * Personal notes are changed with one update statement.  Broadcasts selected by ID have their existing states changed
+ * with one update statement, and states are created for broadcasts the user has never changed.  Broadcasts selected
+ * by time are changed by moving the user's {@link BroadcastNoteMark}, so the cost does not depend on the number of
+ * broadcasts.  Broadcast changes hold a lock on the user's account row, so concurrent updates for the same user are
+ * serialized rather than racing to create the same state or watermark.  Broadcasts are skipped unless
+ * {@link BroadcastNotes#isEnabled()}.
+ */
+public class BulkNoteUpdater {
+  private static final Logger log = Logger.getLogger(BulkNoteUpdater.class.getName());
+
+  /**
+   * Field of personal notes and broadcast states to set.
+   */
+  public enum Flag {
+    READ("isRead"),
+    TRASH("isTrash");
+
+    private final String field;
+
+    Flag(String field) {
+      this.field = field;
+    }
+
+    void set(BroadcastNoteState state) {
+      if (this == READ) state.setRead(true);
+      else state.setTrash(true);
+    }
+
+    long getThrough(BroadcastNoteMark mark) {
+      return this == READ ? mark.getReadThrough() : mark.getTrashThrough();
+    }
+
+    void setThrough(BroadcastNoteMark mark, long through) {
+      if (this == READ) mark.setReadThrough(through);
+      else mark.setTrashThrough(through);
+    }
+  }
+
+  private final EveKitUserAccount user;
+  private final Collection<Long> nids;
+  private final Collection<Long> bids;
+  private final long through;
+
+  private BulkNoteUpdater(EveKitUserAccount user, Collection<Long> nids, Collection<Long> bids, long through) {
+    this.user = user;
+    this.nids = nids;
+    this.bids = bids;
+    this.through = through;
+  }
+
+  /**
+   * Set a flag on notes selected by ID.
+   *
+   * @param user user owning the notes
+   * @param flag flag to set
+   * @param ids  note IDs of notes to change, negative for broadcasts
+   * @return number of notes changed
+   * @throws IOException on any error changing notes, in which case no note is changed
+   */
+  public static int setByID(EveKitUserAccount user, Flag flag, Collection<Long> ids) throws IOException {
+    List<Long> nids = new ArrayList<>();
+    List<Long> bids = new ArrayList<>();
+    for (long next : ids) {
+      if (UserNote.isBroadcastID(next)) bids.add(UserNote.toBroadcastID(next));
+      else nids.add(next);
+    }
+    return new BulkNoteUpdater(user, nids, bids, 0).run(flag);
+  }
+
+  /**
+   * Set a flag on all notes, personal and broadcast, with a time at or before the given time.
+   *
+   * @param user    user owning the notes
+   * @param flag    flag to set
+   * @param through latest note time to change
+   * @return number of notes changed
+   * @throws IOException on any error changing notes, in which case no note is changed
+   */
+  public static int setThrough(EveKitUserAccount user, Flag flag, long through) throws IOException {
+    return new BulkNoteUpdater(user, null, null, through).run(flag);
+  }
+
+  private boolean byID() {
+    return nids != null;
+  }
+
+  private int run(Flag flag) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                    .getEntityManager();
+                                        int changed = 0;
+
+                                        // Personal notes
+                                        if (!byID() || !nids.isEmpty()) {
+                                          Query personal = em.createQuery("UPDATE EveKitUserNotification c SET c." + flag.field + " = true" +
+                                                                              " WHERE c.account = :user AND c." + flag.field + " = false" +
+                                                                              (byID() ? " AND c.nid IN :nids" : " AND c.noteTime <= :through"));
+                                          personal.setParameter("user", user);
+                                          if (byID()) personal.setParameter("nids", nids);
+                                          else personal.setParameter("through", through);
+                                          changed += personal.executeUpdate();
+                                        }
+
+                                        // Broadcasts
+                                        if (BroadcastNotes.isEnabled() && (!byID() || !bids.isEmpty())) {
+                                          BroadcastNotes.lockUser(em, user);
+                                          BroadcastNoteMark mark = BroadcastNotes.getMark(user);
+                                          long marked = flag.getThrough(mark);
+                                          if (byID()) {
+                                            // Broadcasts at or before the watermark already have the flag set
+                                            String selected = "b.bid IN :bids AND b.noteTime > :marked";
+                                            Query existing = em.createQuery("UPDATE BroadcastNoteState s SET s." + flag.field + " = true" +
+                                                                                " WHERE s.account = :user AND s." + flag.field + " = false" +
+                                                                                " AND s.broadcast IN (SELECT b FROM BroadcastNotification b WHERE " + selected + ")");
+                                            existing.setParameter("user", user);
+                                            existing.setParameter("bids", bids);
+                                            existing.setParameter("marked", marked);
+                                            changed += existing.executeUpdate();
+
+                                            TypedQuery<BroadcastNotification> missing = em.createQuery("SELECT b FROM BroadcastNotification b WHERE " + selected +
+                                                                                                           " AND b.noteTime >= :created" +
+                                                                                                           " AND NOT EXISTS (SELECT s FROM BroadcastNoteState s WHERE s.broadcast = b AND s.account = :user)",
+                                                                                                       BroadcastNotification.class);
+                                            missing.setParameter("user", user);
+                                            missing.setParameter("created", user.getCreated());
+                                            missing.setParameter("bids", bids);
+                                            missing.setParameter("marked", marked);
+                                            for (BroadcastNotification next : missing.getResultList()) {
+                                              BroadcastNoteState state = new BroadcastNoteState(next, user);
+                                              flag.set(state);
+                                              em.persist(state);
+                                              changed++;
+                                            }
+                                          } else if (through > marked) {
+                                            // Count the broadcasts the new watermark changes, then move it
+                                            TypedQuery<Long> covered = em.createQuery("SELECT COUNT(b) FROM BroadcastNotification b WHERE b.noteTime >= :created" +
+                                                                                          " AND b.noteTime > :marked AND b.noteTime <= :through" +
+                                                                                          " AND NOT EXISTS (SELECT s FROM BroadcastNoteState s WHERE s.broadcast = b AND s.account = :user AND s." + flag.field + " = true)",
+                                                                                      Long.class);
+                                            covered.setParameter("created", user.getCreated());
+                                            covered.setParameter("marked", marked);
+                                            covered.setParameter("through", through);
+                                            covered.setParameter("user", user);
+                                            changed += covered.getSingleResult();
+                                            flag.setThrough(mark, through);
+                                            if (!em.contains(mark)) em.persist(mark);
+                                          }
+                                        }
+                                        return changed;
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
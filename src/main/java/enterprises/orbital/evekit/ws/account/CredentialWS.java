@@ -15,7 +15,7 @@ import enterprises.orbital.eve.esi.client.model.GetCharactersCharacterIdOk;
 import enterprises.orbital.eve.esi.client.model.GetCorporationsCorporationIdOk;
 import enterprises.orbital.evekit.account.*;
 import enterprises.orbital.evekit.ws.common.ServiceError;
-import enterprises.orbital.oauth.AuthUtil;
+import enterprises.orbital.evekit.ws.common.UserCache;
 import enterprises.orbital.oauth.EVEApi;
 import enterprises.orbital.oauth.EVEAuthHandler;
 import io.swagger.annotations.*;
@@ -212,6 +212,8 @@ public class CredentialWS {
       SynchronizedEveAccount.setESICredential(keyState.getUser(), keyState.getAccount()
                                                                           .getAid(), accessToken.getAccessToken(),
                                               tokenExpiry, accessToken.getRefreshToken(), keyState.getScopes(), charID, charName, corpID, corpName);
+      SyncAccountCache.invalidate(keyState.getUser(), keyState.getAccount()
+                                                              .getAid());
     } catch (AccountNotFoundException e) {
       throw new IOException("Account disappeared before authorization could complete");
     }
@@ -266,12 +268,12 @@ public class CredentialWS {
                      .build();
     }
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return AccountWS.createUserNotLoggedResponse();
 
     try {
       // Retrieve account and start new token creation flow
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, false);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, false);
       return startTokenFlow(request, user, account, scopes);
     } catch (AccountNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.FORBIDDEN.getStatusCode(), "Can't find target account");
@@ -389,11 +391,12 @@ public class CredentialWS {
           required = true,
           value = "ID of sync account owning credential to be deleted.") long aid) {
     // Retrieve user and verify as needed
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return AccountWS.createUserNotLoggedResponse();
 
     try {
       SynchronizedEveAccount.clearESICredential(user, aid);
+      SyncAccountCache.invalidate(user, aid);
     } catch (AccountNotFoundException e) {
       ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Target account not found");
       return Response.status(Status.NOT_FOUND)
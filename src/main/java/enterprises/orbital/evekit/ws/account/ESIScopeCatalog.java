@@ -0,0 +1,24 @@
+package enterprises.orbital.evekit.ws.account;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+import java.util.List;
+
+@ApiModel(description = "Character and corporation ESI endpoint descriptions")
+public class ESIScopeCatalog {
+
+  @ApiModelProperty(value = "Character endpoints")
+  @JsonProperty("char")
+  public List<ESIScopeDescription> charScopes;
+
+  @ApiModelProperty(value = "Corporation endpoints")
+  @JsonProperty("corp")
+  public List<ESIScopeDescription> corpScopes;
+
+  public ESIScopeCatalog(List<ESIScopeDescription> charScopes, List<ESIScopeDescription> corpScopes) {
+    this.charScopes = charScopes;
+    this.corpScopes = corpScopes;
+  }
+}
@@ -0,0 +1,97 @@
+package enterprises.orbital.evekit.ws.account;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import enterprises.orbital.evekit.model.ESIScope;
+import enterprises.orbital.evekit.ws.common.ConditionalResponse;
+import enterprises.orbital.evekit.ws.common.JsonMapper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the character and corporation ESI endpoint scope catalogs.  Scopes are fixed for the life of the process,
+ * so each catalog is serialized once and served as pre-encoded bytes with a long lived, publicly cacheable response.
+ */
+public class ESIScopeCatalogResponses {
+
+  // Clients and shared caches may reuse a catalog for this long without revalidating
+  private static final int MAX_AGE = (int) TimeUnit.SECONDS.convert(1, TimeUnit.DAYS);
+
+  private static class Encoded {
+    final byte[] body;
+    final EntityTag tag;
+
+    Encoded(Object catalog) {
+      try {
+        body = JsonMapper.get()
+                         .writeValueAsBytes(catalog);
+      } catch (JsonProcessingException e) {
+        throw new IllegalStateException("unable to serialize scope catalog", e);
+      }
+      tag = ConditionalResponse.tagFor(body);
+    }
+  }
+
+  private static final List<ESIScopeDescription> charList = new ArrayList<>();
+  private static final List<ESIScopeDescription> corpList = new ArrayList<>();
+
+  static {
+    for (ESIScope next : ESIScope.getCharScopes())
+      charList.add(ESIScopeDescription.fromScope(next));
+    for (ESIScope next : ESIScope.getCorpScopes())
+      corpList.add(ESIScopeDescription.fromScope(next));
+  }
+
+  private static final Encoded charCatalog = new Encoded(charList);
+  private static final Encoded corpCatalog = new Encoded(corpList);
+  private static final Encoded combinedCatalog = new Encoded(new ESIScopeCatalog(charList, corpList));
+
+  private static CacheControl longLived() {
+    CacheControl cc = new CacheControl();
+    // JAX-RS has no setter for the "public" directive, so it is added as a valueless extension
+    cc.getCacheExtension()
+      .put("public", null);
+    cc.setMaxAge(MAX_AGE);
+    return cc;
+  }
+
+  private static Response respond(HttpServletRequest request, Encoded catalog) {
+    return ConditionalResponse.ok(request, catalog.body, catalog.tag, longLived());
+  }
+
+  /**
+   * Build a response holding the character scope catalog.
+   *
+   * @param request incoming HTTP request
+   * @return ready to return response
+   */
+  public static Response charResponse(HttpServletRequest request) {
+    return respond(request, charCatalog);
+  }
+
+  /**
+   * Build a response holding the corporation scope catalog.
+   *
+   * @param request incoming HTTP request
+   * @return ready to return response
+   */
+  public static Response corpResponse(HttpServletRequest request) {
+    return respond(request, corpCatalog);
+  }
+
+  /**
+   * Build a response holding both the character and corporation scope catalogs.
+   *
+   * @param request incoming HTTP request
+   * @return ready to return response
+   */
+  public static Response combinedResponse(HttpServletRequest request) {
+    return respond(request, combinedCatalog);
+  }
+
+}
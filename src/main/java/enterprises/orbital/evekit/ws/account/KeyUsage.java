@@ -0,0 +1,43 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class KeyUsage {
+  private long kid;
+  private int accessKey;
+  private String keyName;
+  private long usage;
+  private long limit;
+  private long expiry;
+
+  public KeyUsage(long kid, int accessKey, String keyName, long usage, long limit, long expiry) {
+    this.kid = kid;
+    this.accessKey = accessKey;
+    this.keyName = keyName;
+    this.usage = usage;
+    this.limit = limit;
+    this.expiry = expiry;
+  }
+
+  public long getKid() {
+    return kid;
+  }
+
+  public int getAccessKey() {
+    return accessKey;
+  }
+
+  public String getKeyName() {
+    return keyName;
+  }
+
+  public long getUsage() {
+    return usage;
+  }
+
+  public long getLimit() {
+    return limit;
+  }
+
+  public long getExpiry() {
+    return expiry;
+  }
+}
@@ -0,0 +1,35 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class KeyVerification {
+  private int accessKey;
+  private boolean valid;
+  private long expiry;
+  private String maskValueString;
+
+  public KeyVerification(int accessKey, boolean valid, long expiry, String maskValueString) {
+    this.accessKey = accessKey;
+    this.valid = valid;
+    this.expiry = expiry;
+    this.maskValueString = maskValueString;
+  }
+
+  public static KeyVerification invalid(int accessKey) {
+    return new KeyVerification(accessKey, false, -1, null);
+  }
+
+  public int getAccessKey() {
+    return accessKey;
+  }
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  public long getExpiry() {
+    return expiry;
+  }
+
+  public String getMaskValueString() {
+    return maskValueString;
+  }
+}
@@ -0,0 +1,263 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.EveKitUserNotification;
+
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keyset paged retrieval of a user's undeleted notes, personal and broadcast, newest first.  Notes are ordered by
+ * time, then broadcasts before personal notes, then decreasing ID.  A page is continued from a cursor naming the last
+ * note of the previous page.  The same cursor, naming the newest note a client has seen, also selects the notes
+ * created since.  Stored broadcasts are only included when {@link BroadcastNotes#isEnabled()}.
+ */
+public class NoteQuery {
+  private static final Logger log = Logger.getLogger(NoteQuery.class.getName());
+
+  // Separates the fields of a cursor
+  private static final String CURSOR_SEPARATOR = ":";
+  private static final String BROADCAST_MARK = "b";
+  private static final String PERSONAL_MARK = "p";
+
+  // Order of notes within a page
+  private static final Comparator<UserNote> NEWEST_FIRST = Comparator.comparingLong(UserNote::getNoteTime)
+                                                                     .thenComparing(UserNote::isBroadcast)
+                                                                     .thenComparingLong(UserNote::storedID)
+                                                                     .reversed();
+
+  private final EveKitUserAccount user;
+  private final boolean hasCursor;
+  private final long cursorTime;
+  private final boolean cursorBroadcast;
+  private final long cursorID;
+
+  /**
+   * Create a new note query.
+   *
+   * @param user   user whose notes will be retrieved
+   * @param cursor cursor naming a note, or null to start with the newest note or to retrieve all notes
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public NoteQuery(EveKitUserAccount user, String cursor) {
+    this.user = user;
+    hasCursor = cursor != null;
+    if (!hasCursor) {
+      cursorTime = 0;
+      cursorBroadcast = false;
+      cursorID = 0;
+      return;
+    }
+    String[] parts = cursor.split(CURSOR_SEPARATOR);
+    if (parts.length != 3 || !(parts[1].equals(BROADCAST_MARK) || parts[1].equals(PERSONAL_MARK)))
+      throw new IllegalArgumentException("malformed note cursor: " + cursor);
+    try {
+      cursorTime = Long.parseLong(parts[0]);
+      cursorID = Long.parseLong(parts[2]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("malformed note cursor: " + cursor, e);
+    }
+    cursorBroadcast = parts[1].equals(BROADCAST_MARK);
+  }
+
+  /**
+   * Build the cursor which continues after a note.
+   *
+   * @param last last note of a page
+   * @return cursor for the next page
+   */
+  public static String cursorAfter(UserNote last) {
+    return last.getNoteTime() + CURSOR_SEPARATOR + (last.isBroadcast() ? BROADCAST_MARK : PERSONAL_MARK) + CURSOR_SEPARATOR + UserNote.storedID(last);
+  }
+
+  // Keyset condition for one kind of note.  Broadcasts come before personal notes with the same time.
+  String keysetCondition(boolean broadcast, String idField) {
+    if (!hasCursor) return "";
+    String sameTime;
+    if (broadcast == cursorBroadcast) sameTime = " OR (c.noteTime = :beforeTime AND c." + idField + " < :beforeID)";
+    else sameTime = cursorBroadcast ? " OR c.noteTime = :beforeTime" : "";
+    return " AND (c.noteTime < :beforeTime" + sameTime + ")";
+  }
+
+  private void setKeysetParameters(TypedQuery<?> query, boolean broadcast) {
+    if (!hasCursor) return;
+    query.setParameter("beforeTime", cursorTime);
+    if (broadcast == cursorBroadcast) query.setParameter("beforeID", cursorID);
+  }
+
+  // Condition selecting notes of one kind which come before the cursor note in keyset order, that is notes newer
+  // than the cursor note.
+  String newerCondition(boolean broadcast, String idField) {
+    if (!hasCursor) return "";
+    String sameTime;
+    if (broadcast == cursorBroadcast) sameTime = " OR (c.noteTime = :afterTime AND c." + idField + " > :afterID)";
+    else sameTime = cursorBroadcast ? "" : " OR c.noteTime = :afterTime";
+    return " AND (c.noteTime > :afterTime" + sameTime + ")";
+  }
+
+  private void setNewerParameters(TypedQuery<?> query, boolean broadcast) {
+    if (!hasCursor) return;
+    query.setParameter("afterTime", cursorTime);
+    if (broadcast == cursorBroadcast) query.setParameter("afterID", cursorID);
+  }
+
+  // Merge personal notes and broadcasts, keep the first maxResults in the given order, then attach read state to the
+  // broadcasts which survive.  Must be called within a transaction.
+  private static List<UserNote> merge(EveKitUserAccount user, List<EveKitUserNotification> personal,
+                                      List<BroadcastNotification> broadcasts, BroadcastNoteMark mark,
+                                      Comparator<UserNote> order, int maxResults) {
+    List<UserNote> merged = new ArrayList<>();
+    for (EveKitUserNotification next : personal)
+      merged.add(UserNote.fromNote(next));
+    for (BroadcastNotification next : broadcasts)
+      merged.add(UserNote.fromBroadcast(next, next.getNoteTime() <= mark.getReadThrough()));
+    merged.sort(order);
+    List<UserNote> page = new ArrayList<>(merged.subList(0, Math.min(maxResults, merged.size())));
+    if (!broadcasts.isEmpty()) {
+      TypedQuery<Long> read = EveKitUserAccountProvider.getFactory()
+                                                       .getEntityManager()
+                                                       .createQuery("SELECT s.broadcast.bid FROM BroadcastNoteState s WHERE s.account = :user AND s.isRead = true AND s.broadcast IN :notes", Long.class);
+      read.setParameter("user", user);
+      read.setParameter("notes", broadcasts);
+      List<Long> readIDs = read.getResultList();
+      page.replaceAll(next -> next.isBroadcast() && !next.isRead() && readIDs.contains(UserNote.storedID(next)) ?
+          new UserNote(next.getNid(), next.getNoteTime(), next.getContent(), true, false, true) : next);
+    }
+    return page;
+  }
+
+  /**
+   * Retrieve the next page of notes.
+   *
+   * @param maxResults maximum number of notes to return
+   * @return the next page of notes
+   * @throws IOException on any error retrieving notes
+   */
+  public List<UserNote> getPage(int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        TypedQuery<EveKitUserNotification> personal = EveKitUserAccountProvider.getFactory()
+                                                                                                               .getEntityManager()
+                                                                                                               .createQuery("SELECT c FROM EveKitUserNotification c WHERE c.account = :user AND c.isTrash = false" +
+                                                                                                                                keysetCondition(false, "nid") +
+                                                                                                                                " ORDER BY c.noteTime DESC, c.nid DESC", EveKitUserNotification.class);
+                                        personal.setParameter("user", user);
+                                        setKeysetParameters(personal, false);
+                                        personal.setMaxResults(maxResults);
+
+                                        if (!BroadcastNotes.isEnabled())
+                                          return merge(user, personal.getResultList(), Collections.emptyList(), null, NEWEST_FIRST, maxResults);
+
+                                        BroadcastNoteMark mark = BroadcastNotes.getMark(user);
+
+                                        TypedQuery<BroadcastNotification> broadcast = EveKitUserAccountProvider.getFactory()
+                                                                                                               .getEntityManager()
+                                                                                                               .createQuery("SELECT c FROM BroadcastNotification c WHERE c.noteTime >= :created AND c.noteTime > :trashThrough" +
+                                                                                                                                " AND NOT EXISTS (SELECT s FROM BroadcastNoteState s WHERE s.broadcast = c AND s.account = :user AND s.isTrash = true)" +
+                                                                                                                                keysetCondition(true, "bid") +
+                                                                                                                                " ORDER BY c.noteTime DESC, c.bid DESC", BroadcastNotification.class);
+                                        broadcast.setParameter("created", user.getCreated());
+                                        broadcast.setParameter("user", user);
+                                        broadcast.setParameter("trashThrough", mark.getTrashThrough());
+                                        setKeysetParameters(broadcast, true);
+                                        broadcast.setMaxResults(maxResults);
+
+                                        return merge(user, personal.getResultList(), broadcast.getResultList(), mark, NEWEST_FIRST, maxResults);
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Retrieve the notes newer than the note named by the cursor, oldest first.  All notes are returned if there is no
+   * cursor.
+   *
+   * @param maxResults maximum number of notes to return
+   * @return notes newer than the cursor note
+   * @throws IOException on any error retrieving notes
+   */
+  public List<UserNote> getNewer(int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        TypedQuery<EveKitUserNotification> personal = EveKitUserAccountProvider.getFactory()
+                                                                                                               .getEntityManager()
+                                                                                                               .createQuery("SELECT c FROM EveKitUserNotification c WHERE c.account = :user AND c.isTrash = false" +
+                                                                                                                                newerCondition(false, "nid") +
+                                                                                                                                " ORDER BY c.noteTime ASC, c.nid ASC", EveKitUserNotification.class);
+                                        personal.setParameter("user", user);
+                                        setNewerParameters(personal, false);
+                                        personal.setMaxResults(maxResults);
+                                        if (!BroadcastNotes.isEnabled())
+                                          return merge(user, personal.getResultList(), Collections.emptyList(), null, NEWEST_FIRST.reversed(), maxResults);
+
+                                        BroadcastNoteMark mark = BroadcastNotes.getMark(user);
+
+                                        TypedQuery<BroadcastNotification> broadcast = EveKitUserAccountProvider.getFactory()
+                                                                                                               .getEntityManager()
+                                                                                                               .createQuery("SELECT c FROM BroadcastNotification c WHERE c.noteTime >= :created AND c.noteTime > :trashThrough" +
+                                                                                                                                " AND NOT EXISTS (SELECT s FROM BroadcastNoteState s WHERE s.broadcast = c AND s.account = :user AND s.isTrash = true)" +
+                                                                                                                                newerCondition(true, "bid") +
+                                                                                                                                " ORDER BY c.noteTime ASC, c.bid ASC", BroadcastNotification.class);
+                                        broadcast.setParameter("created", user.getCreated());
+                                        broadcast.setParameter("trashThrough", mark.getTrashThrough());
+                                        broadcast.setParameter("user", user);
+                                        setNewerParameters(broadcast, true);
+                                        broadcast.setMaxResults(maxResults);
+
+                                        return merge(user, personal.getResultList(), broadcast.getResultList(), mark, NEWEST_FIRST.reversed(), maxResults);
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Count a user's unread, undeleted notes, personal and broadcast.
+   *
+   * @param user user whose notes will be counted
+   * @return number of unread notes
+   * @throws IOException on any error counting notes
+   */
+  public static long countUnread(EveKitUserAccount user) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        TypedQuery<Long> personal = EveKitUserAccountProvider.getFactory()
+                                                                                             .getEntityManager()
+                                                                                             .createQuery("SELECT COUNT(c) FROM EveKitUserNotification c WHERE c.account = :user AND c.isRead = false AND c.isTrash = false", Long.class);
+                                        personal.setParameter("user", user);
+                                        if (!BroadcastNotes.isEnabled()) return personal.getSingleResult();
+                                        BroadcastNoteMark mark = BroadcastNotes.getMark(user);
+                                        TypedQuery<Long> broadcast = EveKitUserAccountProvider.getFactory()
+                                                                                              .getEntityManager()
+                                                                                              .createQuery("SELECT COUNT(c) FROM BroadcastNotification c WHERE c.noteTime >= :created" +
+                                                                                                               " AND c.noteTime > :readThrough AND c.noteTime > :trashThrough" +
+                                                                                                               " AND NOT EXISTS (SELECT s FROM BroadcastNoteState s WHERE s.broadcast = c AND s.account = :user AND (s.isRead = true OR s.isTrash = true))", Long.class);
+                                        broadcast.setParameter("created", user.getCreated());
+                                        broadcast.setParameter("readThrough", mark.getReadThrough());
+                                        broadcast.setParameter("trashThrough", mark.getTrashThrough());
+                                        broadcast.setParameter("user", user);
+                                        return personal.getSingleResult() + broadcast.getSingleResult();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,34 @@
+package enterprises.orbital.evekit.ws.account;
+
+import java.util.List;
+
+/**
+ * Notes to change in a bulk update, selected either by listing note IDs or by a time.
+ */
+public class NoteSelection {
+  private List<Long> nids;
+  private long through = -1;
+
+  public NoteSelection() {}
+
+  public NoteSelection(List<Long> nids, long through) {
+    this.nids = nids;
+    this.through = through;
+  }
+
+  public List<Long> getNids() {
+    return nids;
+  }
+
+  public void setNids(List<Long> nids) {
+    this.nids = nids;
+  }
+
+  public long getThrough() {
+    return through;
+  }
+
+  public void setThrough(long through) {
+    this.through = through;
+  }
+}
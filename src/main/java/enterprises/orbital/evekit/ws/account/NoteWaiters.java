@@ -0,0 +1,169 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.ws.common.ServiceError;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Long-poll waits for new notes.  A waiting request is suspended without holding a servlet thread and resumed with
+ * the user's new notes as soon as a note or broadcast is created for the user through this process, or with an empty
+ * list when the wait times out.  Notes created through another process are picked up when the client polls again
+ * after a timeout.  New notes are those after a {@link NoteQuery} cursor, so notes sharing a time with the last note
+ * seen are neither skipped nor repeated.  Suspending requires the servlet serving this API to be declared with
+ * {@code <async-supported>true</async-supported>}; otherwise waits fail when suspended.
+ */
+public class NoteWaiters {
+  private static final Logger log = Logger.getLogger(NoteWaiters.class.getName());
+
+  // Time after which a wait returns an empty list
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TIMEOUT = "enterprises.orbital.evekit.accountws.noteWait.timeout";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TIMEOUT = TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
+
+  // Maximum number of concurrent waits
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_MAX_WAITERS = "enterprises.orbital.evekit.accountws.noteWait.maxWaiters";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_MAX_WAITERS = 10000;
+
+  // Number of threads checking for new notes on behalf of waiters
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_THREADS = "enterprises.orbital.evekit.accountws.noteWait.threads";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_THREADS = 4;
+
+  // Maximum number of notes returned to a waiter
+  private static final int MAX_NOTES = 1000;
+
+  private static class Waiter {
+    final EveKitUserAccount user;
+    final NoteQuery query;
+    final AsyncResponse response;
+
+    Waiter(EveKitUserAccount user, NoteQuery query, AsyncResponse response) {
+      this.user = user;
+      this.query = query;
+      this.response = response;
+    }
+  }
+
+  private static final ExecutorService checker = Executors.newFixedThreadPool(
+      (int) Math.max(1, OrbitalProperties.getLongGlobalProperty(PROP_THREADS, DEF_THREADS)), r -> {
+        Thread t = new Thread(r, "note-wait-check");
+        t.setDaemon(true);
+        return t;
+      });
+
+  // All remaining state is guarded by the class lock
+  private static final Map<Long, Set<Waiter>> waiters = new HashMap<>();
+  private static int count;
+
+  private static synchronized boolean register(Waiter waiter) {
+    if (count >= OrbitalProperties.getLongGlobalProperty(PROP_MAX_WAITERS, DEF_MAX_WAITERS)) return false;
+    waiters.computeIfAbsent(waiter.user.getID(), k -> new LinkedHashSet<>())
+           .add(waiter);
+    count++;
+    return true;
+  }
+
+  private static synchronized boolean remove(Waiter waiter) {
+    Set<Waiter> forUser = waiters.get(waiter.user.getID());
+    if (forUser == null || !forUser.remove(waiter)) return false;
+    if (forUser.isEmpty()) waiters.remove(waiter.user.getID());
+    count--;
+    return true;
+  }
+
+  private static synchronized List<Waiter> getWaiters(long uid) {
+    Set<Waiter> forUser = waiters.get(uid);
+    return forUser == null ? Collections.emptyList() : new ArrayList<>(forUser);
+  }
+
+  private static synchronized List<Waiter> getAllWaiters() {
+    List<Waiter> all = new ArrayList<>();
+    for (Set<Waiter> next : waiters.values()) all.addAll(next);
+    return all;
+  }
+
+  // Resume a waiter if it has new notes.  Runs on the checker pool.
+  private static void check(Waiter waiter) {
+    try {
+      List<UserNote> notes = waiter.query.getNewer(MAX_NOTES);
+      if (!notes.isEmpty() && remove(waiter)) waiter.response.resume(Response.ok()
+                                                                             .header(AccountWS.NEXT_CURSOR_HEADER, NoteQuery.cursorAfter(notes.get(notes.size() - 1)))
+                                                                             .entity(notes)
+                                                                             .build());
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "error checking for new notes", e);
+      if (remove(waiter)) {
+        ServiceError errMsg = new ServiceError(
+            Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Internal error retrieving notes, contact admin if problem persists");
+        waiter.response.resume(Response.status(Status.INTERNAL_SERVER_ERROR)
+                                       .entity(errMsg)
+                                       .build());
+      }
+    }
+  }
+
+  /**
+   * Wait for notes newer than the cursor note of a query.  The response is resumed immediately if such notes already
+   * exist.  A response with notes carries the cursor of the newest note returned.
+   *
+   * @param user     user whose notes will be returned
+   * @param query    query naming the newest note already seen
+   * @param response suspended response to resume
+   */
+  public static void await(EveKitUserAccount user, NoteQuery query, AsyncResponse response) {
+    Waiter waiter = new Waiter(user, query, response);
+    if (!register(waiter)) {
+      ServiceError errMsg = new ServiceError(Status.SERVICE_UNAVAILABLE.getStatusCode(), "Too many waiting clients, try again later");
+      response.resume(Response.status(Status.SERVICE_UNAVAILABLE)
+                              .entity(errMsg)
+                              .build());
+      return;
+    }
+    response.setTimeout(OrbitalProperties.getLongGlobalProperty(PROP_TIMEOUT, DEF_TIMEOUT), TimeUnit.MILLISECONDS);
+    response.setTimeoutHandler(r -> {
+      if (remove(waiter)) r.resume(Response.ok()
+                                           .entity(Collections.emptyList())
+                                           .build());
+    });
+    // Registered before checking so that a note created during the check still wakes this waiter
+    checker.submit(() -> check(waiter));
+  }
+
+  /**
+   * Wake waits for a user whose notes have changed.
+   *
+   * @param uid ID of the user
+   */
+  public static void notifyUser(long uid) {
+    for (Waiter next : getWaiters(uid)) checker.submit(() -> check(next));
+  }
+
+  /**
+   * Wake all waits, for example after a broadcast.
+   */
+  public static void notifyAllUsers() {
+    for (Waiter next : getAllWaiters()) checker.submit(() -> check(next));
+  }
+
+}
@@ -0,0 +1,156 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.AccountNotFoundException;
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import enterprises.orbital.evekit.ws.common.CacheStats;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, least-recently-used cache of sync accounts keyed by owning user and account ID.  Accounts changed through
+ * this module are invalidated immediately.  Sync workers may also change accounts, for example when refreshing
+ * credentials, so entries expire after a short time as well.  Cached accounts are shared between requests and must
+ * not be modified by callers.
+ */
+public class SyncAccountCache {
+
+  // Maximum number of cached accounts
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.accountCache.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 10000;
+
+  // Time after which cached accounts are reloaded
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TTL = "enterprises.orbital.evekit.accountws.accountCache.ttl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TTL = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+
+  private static class Key {
+    final long uid;
+    final long aid;
+    final boolean includeMarkedForDelete;
+
+    Key(long uid, long aid, boolean includeMarkedForDelete) {
+      this.uid = uid;
+      this.aid = aid;
+      this.includeMarkedForDelete = includeMarkedForDelete;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return uid == key.uid && aid == key.aid && includeMarkedForDelete == key.includeMarkedForDelete;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(uid, aid, includeMarkedForDelete);
+    }
+  }
+
+  private static class Entry {
+    final SynchronizedEveAccount account;
+    final long loaded;
+
+    Entry(SynchronizedEveAccount account, long loaded) {
+      this.account = account;
+      this.loaded = loaded;
+    }
+  }
+
+  private static final int capacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY);
+  private static final long ttl = OrbitalProperties.getLongGlobalProperty(PROP_TTL, DEF_TTL);
+
+  // All remaining state is guarded by the class lock
+  private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+      if (size() <= capacity) return false;
+      evictions++;
+      return true;
+    }
+  };
+  // Incremented on every invalidation so that loads racing an invalidation are not cached
+  private static long generation;
+  private static long hits;
+  private static long misses;
+  private static long expirations;
+  private static long evictions;
+  private static long invalidations;
+
+  private static synchronized SynchronizedEveAccount lookup(Key key) {
+    Entry cached = entries.get(key);
+    if (cached != null) {
+      if (OrbitalProperties.getCurrentTime() - cached.loaded < ttl) {
+        hits++;
+        return cached.account;
+      }
+      entries.remove(key);
+      expirations++;
+    }
+    misses++;
+    return null;
+  }
+
+  private static synchronized long getGeneration() {
+    return generation;
+  }
+
+  private static synchronized void store(Key key, SynchronizedEveAccount account, long loaded, long start) {
+    if (generation == start) entries.put(key, new Entry(account, loaded));
+  }
+
+  /**
+   * Retrieve a sync account, loading it if it is not cached or has expired.
+   *
+   * @param user                   owner of the account
+   * @param aid                    ID of the account
+   * @param includeMarkedForDelete if true, accounts marked for deletion may be returned
+   * @return the requested account
+   * @throws AccountNotFoundException if the account is not found
+   * @throws IOException              on any error loading the account
+   */
+  public static SynchronizedEveAccount getSynchronizedAccount(EveKitUserAccount user, long aid,
+                                                              boolean includeMarkedForDelete) throws AccountNotFoundException, IOException {
+    Key key = new Key(user.getID(), aid, includeMarkedForDelete);
+    SynchronizedEveAccount account = lookup(key);
+    if (account != null) return account;
+    long start = getGeneration();
+    long loaded = OrbitalProperties.getCurrentTime();
+    account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, includeMarkedForDelete);
+    store(key, account, loaded, start);
+    return account;
+  }
+
+  /**
+   * Discard cached copies of an account.
+   *
+   * @param user owner of the account
+   * @param aid  ID of the account which has changed
+   */
+  public static synchronized void invalidate(EveKitUserAccount user, long aid) {
+    generation++;
+    boolean removed = entries.remove(new Key(user.getID(), aid, true)) != null;
+    removed = entries.remove(new Key(user.getID(), aid, false)) != null || removed;
+    if (removed) invalidations++;
+  }
+
+  /**
+   * Retrieve cache metrics.
+   *
+   * @return current cache metrics
+   */
+  public static synchronized CacheStats getStats() {
+    return new CacheStats(capacity, entries.size(), hits, misses, expirations, evictions, invalidations);
+  }
+
+}
@@ -0,0 +1,13 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class UnreadNoteCount {
+  private long unread;
+
+  public UnreadNoteCount(long unread) {
+    this.unread = unread;
+  }
+
+  public long getUnread() {
+    return unread;
+  }
+}
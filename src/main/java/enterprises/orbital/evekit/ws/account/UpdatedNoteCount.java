@@ -0,0 +1,13 @@
+package enterprises.orbital.evekit.ws.account;
+
+public class UpdatedNoteCount {
+  private int updated;
+
+  public UpdatedNoteCount(int updated) {
+    this.updated = updated;
+  }
+
+  public int getUpdated() {
+    return updated;
+  }
+}
@@ -0,0 +1,82 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserNotification;
+
+/**
+ * A personal note or broadcast as seen by one user.  A broadcast is given the negated broadcast ID as its note ID so
+ * that it never collides with a personal note ID, which is always positive.
+ */
+public class UserNote {
+  private long nid;
+  private long noteTime;
+  private String content;
+  private boolean read;
+  private boolean trash;
+  private boolean broadcast;
+
+  public UserNote(long nid, long noteTime, String content, boolean read, boolean trash, boolean broadcast) {
+    this.nid = nid;
+    this.noteTime = noteTime;
+    this.content = content;
+    this.read = read;
+    this.trash = trash;
+    this.broadcast = broadcast;
+  }
+
+  public static UserNote fromNote(EveKitUserNotification note) {
+    return new UserNote(note.getNid(), note.getNoteTime(), note.getContent(), note.isRead(), note.isTrash(), false);
+  }
+
+  public static UserNote fromBroadcast(BroadcastNotification note, boolean read) {
+    return new UserNote(-note.getBid(), note.getNoteTime(), note.getContent(), read, false, true);
+  }
+
+  /**
+   * Check whether a note ID refers to a broadcast.
+   *
+   * @param nid note ID
+   * @return true if the ID refers to a broadcast
+   */
+  public static boolean isBroadcastID(long nid) {
+    return nid < 0;
+  }
+
+  /**
+   * Convert the note ID of a broadcast to the ID of the stored broadcast.
+   *
+   * @param nid note ID of a broadcast
+   * @return ID of the stored broadcast
+   */
+  public static long toBroadcastID(long nid) {
+    return -nid;
+  }
+
+  // ID of the stored personal note or broadcast
+  static long storedID(UserNote note) {
+    return note.isBroadcast() ? toBroadcastID(note.nid) : note.nid;
+  }
+
+  public long getNid() {
+    return nid;
+  }
+
+  public long getNoteTime() {
+    return noteTime;
+  }
+
+  public String getContent() {
+    return content;
+  }
+
+  public boolean isRead() {
+    return read;
+  }
+
+  public boolean isTrash() {
+    return trash;
+  }
+
+  public boolean isBroadcast() {
+    return broadcast;
+  }
+}
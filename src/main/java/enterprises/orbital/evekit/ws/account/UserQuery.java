@@ -0,0 +1,74 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keyset paged, filtered retrieval of user accounts in increasing user ID order.
+ */
+public class UserQuery {
+  private static final Logger log = Logger.getLogger(UserQuery.class.getName());
+
+  private final Boolean active;
+  private final Boolean admin;
+  private final long createdSince;
+  private final long lastSignOnSince;
+
+  /**
+   * Create a new user query.
+   *
+   * @param active          if not null, only return users with this active state
+   * @param admin           if not null, only return users with this admin state
+   * @param createdSince    if positive, only return users created at or after this time
+   * @param lastSignOnSince if positive, only return users who last signed on at or after this time
+   */
+  public UserQuery(Boolean active, Boolean admin, long createdSince, long lastSignOnSince) {
+    this.active = active;
+    this.admin = admin;
+    this.createdSince = createdSince;
+    this.lastSignOnSince = lastSignOnSince;
+  }
+
+  /**
+   * Retrieve the next page of matching users.
+   *
+   * @param after      only return users with an ID greater than this ID
+   * @param maxResults maximum number of users to return
+   * @return the next page of users
+   * @throws IOException on any error retrieving users
+   */
+  public List<EveKitUserAccount> getPage(long after, int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        StringBuilder ql = new StringBuilder("SELECT c FROM EveKitUserAccount c WHERE c.uid > :after");
+                                        if (active != null) ql.append(" AND c.active = :active");
+                                        if (admin != null) ql.append(" AND c.admin = :admin");
+                                        if (createdSince > 0) ql.append(" AND c.created >= :created");
+                                        if (lastSignOnSince > 0) ql.append(" AND c.lastSignOn >= :lastSignOn");
+                                        ql.append(" ORDER BY c.uid ASC");
+                                        TypedQuery<EveKitUserAccount> query = EveKitUserAccountProvider.getFactory()
+                                                                                                       .getEntityManager()
+                                                                                                       .createQuery(ql.toString(), EveKitUserAccount.class);
+                                        query.setParameter("after", after);
+                                        if (active != null) query.setParameter("active", active);
+                                        if (admin != null) query.setParameter("admin", admin);
+                                        if (createdSince > 0) query.setParameter("created", createdSince);
+                                        if (lastSignOnSince > 0) query.setParameter("lastSignOn", lastSignOnSince);
+                                        query.setMaxResults(maxResults);
+                                        return query.getResultList();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+}
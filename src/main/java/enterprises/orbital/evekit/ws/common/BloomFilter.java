@@ -0,0 +1,87 @@
+package enterprises.orbital.evekit.ws.common;
+
+import java.util.BitSet;
+
+/**
+ * Fixed size Bloom filter over long values.  A filter may report false positives but never false negatives, and
+ * values can't be removed individually, so callers which need removal clear the whole filter instead.  Not thread
+ * safe.
+ */
+public class BloomFilter {
+  private final BitSet bits;
+  private final int size;
+  private final int hashes;
+  private int count;
+
+  /**
+   * Create a filter sized for an expected number of values and target false positive rate.
+   *
+   * @param expected          expected number of values
+   * @param falsePositiveRate target false positive rate once the expected number of values have been added
+   */
+  public BloomFilter(int expected, double falsePositiveRate) {
+    expected = Math.max(1, expected);
+    long m = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    size = (int) Math.max(64, Math.min(Integer.MAX_VALUE, m));
+    hashes = Math.max(1, (int) Math.round((double) size / expected * Math.log(2)));
+    bits = new BitSet(size);
+  }
+
+  // Mix bits so that nearby values map to unrelated positions (MurmurHash3 finalizer)
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  private int position(long hash, int i) {
+    // Double hashing: h1 + i * h2
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    return Math.floorMod(h1 + i * h2, size);
+  }
+
+  /**
+   * Add a value to the filter.
+   *
+   * @param value value to add
+   */
+  public void add(long value) {
+    long hash = mix(value);
+    for (int i = 0; i < hashes; i++) bits.set(position(hash, i));
+    count++;
+  }
+
+  /**
+   * Check whether a value may have been added to the filter.
+   *
+   * @param value value to check
+   * @return false if the value was definitely never added, true if it may have been added
+   */
+  public boolean mightContain(long value) {
+    long hash = mix(value);
+    for (int i = 0; i < hashes; i++) if (!bits.get(position(hash, i))) return false;
+    return true;
+  }
+
+  /**
+   * Remove all values from the filter.
+   */
+  public void clear() {
+    bits.clear();
+    count = 0;
+  }
+
+  /**
+   * Number of values added since the filter was created or last cleared.
+   *
+   * @return number of values added
+   */
+  public int getCount() {
+    return count;
+  }
+
+}
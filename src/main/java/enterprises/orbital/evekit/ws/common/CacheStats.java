@@ -0,0 +1,55 @@
+package enterprises.orbital.evekit.ws.common;
+
+public class CacheStats {
+  private int capacity;
+  private int size;
+  private long hits;
+  private long misses;
+  private long expirations;
+  private long evictions;
+  private long invalidations;
+
+  public CacheStats(int capacity, int size, long hits, long misses, long expirations, long evictions,
+                           long invalidations) {
+    this.capacity = capacity;
+    this.size = size;
+    this.hits = hits;
+    this.misses = misses;
+    this.expirations = expirations;
+    this.evictions = evictions;
+    this.invalidations = invalidations;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public long getExpirations() {
+    return expirations;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getInvalidations() {
+    return invalidations;
+  }
+
+  public double getHitRatio() {
+    long total = hits + misses;
+    return total == 0 ? 0 : (double) hits / total;
+  }
+}
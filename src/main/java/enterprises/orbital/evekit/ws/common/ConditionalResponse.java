@@ -0,0 +1,108 @@
+package enterprises.orbital.evekit.ws.common;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Builds responses carrying a strong ETag computed from the serialized entity.  The entity is serialized exactly
+ * once: if the request's If-None-Match header matches, a 304 with no body is returned, otherwise the serialized bytes
+ * are returned as is.  Responses are marked private and must be revalidated, since they hold per-user data which may
+ * change at any time.
+ */
+public class ConditionalResponse {
+  // Bytes of the content digest kept in the tag
+  private static final int TAG_BYTES = 18;
+
+  private static CacheControl revalidate() {
+    CacheControl cc = new CacheControl();
+    cc.setPrivate(true);
+    cc.setNoCache(true);
+    return cc;
+  }
+
+  static String computeTag(byte[] body) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+                                   .digest(body);
+      return Base64.getUrlEncoder()
+                   .withoutPadding()
+                   .encodeToString(Arrays.copyOf(digest, TAG_BYTES));
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-256 is required of every JVM
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Check whether an If-None-Match header matches a tag.  Weak comparison is used as required for If-None-Match.
+   *
+   * @param ifNoneMatch header value, or null if not present
+   * @param tag         current tag value, unquoted
+   * @return true if the header matches the tag
+   */
+  static boolean matches(String ifNoneMatch, String tag) {
+    if (ifNoneMatch == null) return false;
+    for (String next : ifNoneMatch.split(",")) {
+      next = next.trim();
+      if (next.equals("*")) return true;
+      if (next.startsWith("W/")) next = next.substring(2);
+      if (next.equals("\"" + tag + "\"")) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Compute a strong tag for serialized content.
+   *
+   * @param body serialized content
+   * @return tag for the content
+   */
+  public static EntityTag tagFor(byte[] body) {
+    return new EntityTag(computeTag(body));
+  }
+
+  /**
+   * Build a 200 response for an entity, or a 304 response if the client already holds the current version.
+   *
+   * @param request incoming HTTP request, or null if there is no request to check
+   * @param entity  entity to return
+   * @return ready to return response
+   * @throws IOException on any error serializing the entity
+   */
+  public static Response ok(HttpServletRequest request, Object entity) throws IOException {
+    byte[] body = JsonMapper.get()
+                            .writeValueAsBytes(entity);
+    return ok(request, body, tagFor(body), revalidate());
+  }
+
+  /**
+   * Build a 200 response for already serialized JSON, or a 304 response if the client already holds the current
+   * version.
+   *
+   * @param request      incoming HTTP request, or null if there is no request to check
+   * @param body         serialized JSON to return
+   * @param tag          tag of the serialized JSON
+   * @param cacheControl cache control to set on the response
+   * @return ready to return response
+   */
+  public static Response ok(HttpServletRequest request, byte[] body, EntityTag tag, CacheControl cacheControl) {
+    if (request != null && matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), tag.getValue()))
+      return Response.notModified(tag)
+                     .cacheControl(cacheControl)
+                     .build();
+    return Response.ok(body, MediaType.APPLICATION_JSON_TYPE)
+                   .tag(tag)
+                   .cacheControl(cacheControl)
+                   .build();
+  }
+
+}
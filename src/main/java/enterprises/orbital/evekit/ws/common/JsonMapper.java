@@ -0,0 +1,20 @@
+package enterprises.orbital.evekit.ws.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The mapper used wherever this service serializes JSON itself rather than through the JAX-RS provider, such as
+ * ETag bodies, streamed arrays and server-sent events.  It is configured like the Jackson JAX-RS provider's default
+ * mapper, so these responses match what the provider would have written for the same entity.  The mapper is shared
+ * and must not be reconfigured; callers which need different settings should derive an ObjectWriter from it.
+ */
+public class JsonMapper {
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private JsonMapper() {}
+
+  public static ObjectMapper get() {
+    return mapper;
+  }
+
+}
@@ -0,0 +1,92 @@
+package enterprises.orbital.evekit.ws.common;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams a JSON array assembled from successive pages of a query which continues from the last element of the
+ * previous page.  Only one page is held in
+ * memory at a time, and output is flushed after each page so that clients receive results as soon as the first
+ * page is retrieved.
+ *
+ * @param <A> type of streamed element
+ */
+public class StreamingJsonArray<A> implements StreamingOutput {
+  private static final Logger log = Logger.getLogger(StreamingJsonArray.class.getName());
+  // Flushing is handled per page, and the container owns the output stream
+  private static final ObjectWriter writer = JsonMapper.get()
+                                                      .writer()
+                                                      .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  // Default number of elements retrieved per page
+  public static final int DEF_PAGE_SIZE = 500;
+
+  /**
+   * Retrieves a page of results.
+   *
+   * @param <A> type of retrieved element
+   */
+  public interface PageSource<A> {
+    /**
+     * Retrieve the next page of results.
+     *
+     * @param last       last element of the previous page, or null for the first page
+     * @param maxResults maximum number of results to return
+     * @return the next page of results, or an empty list if there are no more results
+     * @throws IOException on any error retrieving results
+     */
+    List<A> getPage(A last, int maxResults) throws IOException;
+  }
+
+  private final PageSource<A> source;
+  private final int maxResults;
+  private final int pageSize;
+
+  /**
+   * Create a new stream.
+   *
+   * @param source     source of pages
+   * @param maxResults maximum number of elements to stream
+   * @param pageSize   maximum number of elements to retrieve per page
+   */
+  public StreamingJsonArray(PageSource<A> source, int maxResults, int pageSize) {
+    this.source = source;
+    this.maxResults = maxResults;
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public void write(OutputStream output) throws IOException {
+    JsonGenerator generator = JsonMapper.get()
+                                        .getFactory()
+                                        .createGenerator(output)
+                                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.writeStartArray();
+    try {
+      A last = null;
+      int remaining = maxResults;
+      while (remaining > 0) {
+        List<A> page = source.getPage(last, Math.min(remaining, pageSize));
+        if (page.isEmpty()) break;
+        for (A next : page) writer.writeValue(generator, next);
+        generator.flush();
+        remaining -= page.size();
+        last = page.get(page.size() - 1);
+      }
+    } catch (IOException e) {
+      // Response is already committed, so all we can do is log and terminate the stream
+      log.log(Level.WARNING, "error while streaming results", e);
+      throw e;
+    }
+    generator.writeEndArray();
+    generator.close();
+  }
+}
@@ -0,0 +1,127 @@
+package enterprises.orbital.evekit.ws.common;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.EveKitUserAccount;
+import enterprises.orbital.evekit.account.UserNotFoundException;
+import enterprises.orbital.oauth.AuthUtil;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, short-lived cache of user accounts.  Logged in users are cached by their session credentials, and
+ * target users of admin requests are cached by ID, so that a request which checks both the requestor and a target
+ * user loads each at most once.  Entries expire after a short time and are invalidated when a user is updated
+ * through this module.
+ */
+public class UserCache {
+
+  // Maximum number of cached users
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.userCache.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 10000;
+
+  // Time after which cached users are reloaded
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TTL = "enterprises.orbital.evekit.accountws.userCache.ttl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TTL = TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
+
+  private static class Entry {
+    final EveKitUserAccount user;
+    final long loaded;
+
+    Entry(EveKitUserAccount user, long loaded) {
+      this.user = user;
+      this.loaded = loaded;
+    }
+  }
+
+  private static final int capacity = (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY);
+  private static final long ttl = OrbitalProperties.getLongGlobalProperty(PROP_TTL, DEF_TTL);
+
+  // Keys are either a user ID or a session credential string.  Guarded by the class lock.
+  private static final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+      return size() > capacity;
+    }
+  };
+  // Incremented on every invalidation so that loads racing an invalidation are not cached
+  private static long generation;
+
+  private static synchronized EveKitUserAccount lookup(Object key) {
+    Entry cached = entries.get(key);
+    if (cached == null) return null;
+    if (OrbitalProperties.getCurrentTime() - cached.loaded < ttl) return cached.user;
+    entries.remove(key);
+    return null;
+  }
+
+  private static synchronized long getGeneration() {
+    return generation;
+  }
+
+  private static synchronized void store(Object key, EveKitUserAccount user, long loaded, long start) {
+    if (generation == start) entries.put(key, new Entry(user, loaded));
+  }
+
+  /**
+   * Retrieve the logged in user for a request.
+   *
+   * @param request incoming HTTP request
+   * @return the logged in user, or null if no user is logged in
+   */
+  public static EveKitUserAccount getCurrentUser(HttpServletRequest request) {
+    HttpSession session = request.getSession();
+    Object uid = session.getAttribute(AuthUtil.UID_SESSION_VAR);
+    Object source = session.getAttribute(AuthUtil.SOURCE_SESSION_VAR);
+    if (uid == null || source == null) return (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    String key = uid + "\n" + source;
+    EveKitUserAccount user = lookup(key);
+    if (user != null) return user;
+    long start = getGeneration();
+    long loaded = OrbitalProperties.getCurrentTime();
+    user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    if (user != null) store(key, user, loaded, start);
+    return user;
+  }
+
+  /**
+   * Retrieve a user by ID.
+   *
+   * @param uid ID of user to retrieve
+   * @return the user with the given ID
+   * @throws UserNotFoundException if no user has the given ID
+   * @throws IOException           on any error retrieving the user
+   */
+  public static EveKitUserAccount getUser(long uid) throws UserNotFoundException, IOException {
+    EveKitUserAccount user = lookup(uid);
+    if (user != null) return user;
+    long start = getGeneration();
+    long loaded = OrbitalProperties.getCurrentTime();
+    user = EveKitUserAccount.getAccount(uid);
+    store(uid, user, loaded, start);
+    return user;
+  }
+
+  /**
+   * Discard all cached copies of a user.
+   *
+   * @param uid ID of user which has changed
+   */
+  public static synchronized void invalidate(long uid) {
+    generation++;
+    for (Iterator<Entry> i = entries.values()
+                                    .iterator(); i.hasNext(); ) {
+      if (i.next().user.getID() == uid) i.remove();
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+package enterprises.orbital.evekit.ws.model;
+
+public class BulkFinishItem {
+
+  public enum Result {
+    FINISHED,
+    ALREADY_FINISHED,
+    NOT_FOUND,
+    FAILED
+  }
+
+  private long tid;
+  private boolean ref;
+  private String endpoint;
+  private Result result;
+
+  public BulkFinishItem(long tid, boolean ref, String endpoint, Result result) {
+    this.tid = tid;
+    this.ref = ref;
+    this.endpoint = endpoint;
+    this.result = result;
+  }
+
+  public long getTid() {
+    return tid;
+  }
+
+  public boolean isRef() {
+    return ref;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public Result getResult() {
+    return result;
+  }
+}
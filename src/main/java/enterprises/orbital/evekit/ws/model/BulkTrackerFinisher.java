@@ -0,0 +1,355 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESIRefEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESIRefSyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncState;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Force-finishes many trackers at once.  Trackers are selected either by ID or by a filter.  Selected trackers are
+ * loaded in batches and each batch is loaded and finished in a single transaction, so a batch is either finished
+ * completely or not at all.  Stats and tracker events are published only after a batch commits.  All selected
+ * trackers are finished before any result is returned, so the work never depends on the caller staying connected.
+ */
+public class BulkTrackerFinisher {
+  private static final Logger log = Logger.getLogger(BulkTrackerFinisher.class.getName());
+
+  // Number of trackers loaded per query
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_SIZE = "enterprises.orbital.evekit.accountws.bulkFinish.batchSize";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_SIZE = 100;
+
+  static final String FINISH_DETAIL = "Tracker forced to finish by administrator request.";
+
+  private static int getBatchSize() {
+    int batchSize = (int) OrbitalProperties.getLongGlobalProperty(PROP_BATCH_SIZE, DEF_BATCH_SIZE);
+    return batchSize > 0 ? batchSize : (int) DEF_BATCH_SIZE;
+  }
+
+  private static List<List<Long>> partition(Collection<Long> tids, int batchSize) {
+    List<List<Long>> batches = new ArrayList<>();
+    List<Long> next = new ArrayList<>();
+    for (Long tid : new LinkedHashSet<>(tids)) {
+      next.add(tid);
+      if (next.size() == batchSize) {
+        batches.add(next);
+        next = new ArrayList<>();
+      }
+    }
+    if (!next.isEmpty()) batches.add(next);
+    return batches;
+  }
+
+  /**
+   * Finish trackers by ID.  A batch which fails to finish is reported as FAILED and the remaining batches are still
+   * attempted.
+   *
+   * @param tids    IDs of ESI trackers to finish
+   * @param refTids IDs of ref trackers to finish
+   * @return per-tracker results
+   */
+  public static List<BulkFinishItem> finishByID(Collection<Long> tids, Collection<Long> refTids) {
+    int batchSize = getBatchSize();
+    List<BulkFinishItem> results = new ArrayList<>();
+    for (List<Long> batch : partition(tids, batchSize)) results.addAll(finishTrackers(batch));
+    for (List<Long> batch : partition(refTids, batchSize)) results.addAll(finishRefTrackers(batch));
+    return results;
+  }
+
+  /**
+   * Finish all started but unfinished trackers which started before a given time.  If only one of the endpoint
+   * filters is set, only trackers of that kind are finished.  If a batch fails, its trackers are reported as FAILED
+   * and no further batches are attempted.
+   *
+   * @param endpoint      if not null, only finish ESI trackers for this endpoint
+   * @param refEndpoint   if not null, only finish ref trackers for this endpoint
+   * @param startedBefore only finish trackers started before this time
+   * @return per-tracker results, up to and including the first failed batch
+   * @throws IOException if the first batch could not be selected
+   */
+  public static List<BulkFinishItem> finishMatching(ESISyncEndpoint endpoint, ESIRefSyncEndpoint refEndpoint,
+                                                    long startedBefore) throws IOException {
+    int batchSize = getBatchSize();
+    boolean all = endpoint == null && refEndpoint == null;
+    List<BulkFinishItem> results = new ArrayList<>();
+    try {
+      if (all || endpoint != null) {
+        long after = Long.MIN_VALUE;
+        List<BulkFinishItem> batch;
+        do {
+          batch = finishMatchingTrackers(endpoint, startedBefore, after, batchSize, FINISH_DETAIL);
+          if (!batch.isEmpty()) after = batch.get(batch.size() - 1)
+                                             .getTid();
+          results.addAll(batch);
+          if (hasFailed(batch)) return results;
+        } while (batch.size() == batchSize);
+      }
+      if (all || refEndpoint != null) {
+        long after = Long.MIN_VALUE;
+        List<BulkFinishItem> batch;
+        do {
+          batch = finishMatchingRefTrackers(refEndpoint, startedBefore, after, batchSize, FINISH_DETAIL);
+          if (!batch.isEmpty()) after = batch.get(batch.size() - 1)
+                                             .getTid();
+          results.addAll(batch);
+          if (hasFailed(batch)) return results;
+        } while (batch.size() == batchSize);
+      }
+    } catch (IOException e) {
+      // Selection failed, report what we finished so far if anything
+      if (results.isEmpty()) throw e;
+      log.log(Level.WARNING, "error selecting trackers, returning partial results", e);
+    }
+    return results;
+  }
+
+  /**
+   * Check whether a batch failed to finish.
+   *
+   * @param batch batch results
+   * @return true if any tracker in the batch failed
+   */
+  static boolean hasFailed(List<BulkFinishItem> batch) {
+    for (BulkFinishItem next : batch)
+      if (next.getResult() == BulkFinishItem.Result.FAILED) return true;
+    return false;
+  }
+
+  /**
+   * Finish a tracker loaded in the current transaction.  This does what the model's finishTracker does, but
+   * within the caller's transaction so that a batch commits at once.
+   *
+   * @param em       entity manager for the current transaction
+   * @param tracker  tracker to finish
+   * @param detail   detail to record on the finished tracker
+   * @param finished receives the finished tracker, to be published once the transaction commits
+   * @return result for the tracker
+   */
+  private static BulkFinishItem finish(EntityManager em, ESIEndpointSyncTracker tracker, String detail,
+                                       List<ESIEndpointSyncTracker> finished) {
+    long tid = tracker.getTid();
+    String endpoint = String.valueOf(tracker.getEndpoint());
+    if (tracker.getSyncEnd() > 0)
+      return new BulkFinishItem(tid, false, endpoint, BulkFinishItem.Result.ALREADY_FINISHED);
+    long now = OrbitalProperties.getCurrentTime();
+    if (tracker.getSyncStart() <= 0) tracker.setSyncStart(now);
+    tracker.setStatus(ESISyncState.WARNING);
+    tracker.setDetail(detail);
+    tracker.setSyncEnd(now);
+    finished.add(em.merge(tracker));
+    return new BulkFinishItem(tid, false, endpoint, BulkFinishItem.Result.FINISHED);
+  }
+
+  private static BulkFinishItem finish(EntityManager em, ESIRefEndpointSyncTracker tracker, String detail,
+                                       List<ESIRefEndpointSyncTracker> finished) {
+    long tid = tracker.getTid();
+    String endpoint = String.valueOf(tracker.getEndpoint());
+    if (tracker.getSyncEnd() > 0)
+      return new BulkFinishItem(tid, true, endpoint, BulkFinishItem.Result.ALREADY_FINISHED);
+    long now = OrbitalProperties.getCurrentTime();
+    if (tracker.getSyncStart() <= 0) tracker.setSyncStart(now);
+    tracker.setStatus(ESISyncState.WARNING);
+    tracker.setDetail(detail);
+    tracker.setSyncEnd(now);
+    finished.add(em.merge(tracker));
+    return new BulkFinishItem(tid, true, endpoint, BulkFinishItem.Result.FINISHED);
+  }
+
+  private static void publishTrackers(List<ESIEndpointSyncTracker> finished) {
+    for (ESIEndpointSyncTracker next : finished) {
+      ESISyncStatsRollup.recordFinished(next);
+      // Also invalidates cached unfinished trackers for the account
+      SyncTrackerEvents.forceFinished(next);
+    }
+  }
+
+  private static void publishRefTrackers(List<ESIRefEndpointSyncTracker> finished) {
+    for (ESIRefEndpointSyncTracker next : finished) SyncTrackerEvents.forceFinished(next);
+  }
+
+  private static List<BulkFinishItem> failed(List<Long> tids, boolean ref) {
+    List<BulkFinishItem> results = new ArrayList<>();
+    for (Long tid : tids) results.add(new BulkFinishItem(tid, ref, null, BulkFinishItem.Result.FAILED));
+    return results;
+  }
+
+  static List<BulkFinishItem> finishTrackers(List<Long> tids) {
+    List<ESIEndpointSyncTracker> finished = new ArrayList<>();
+    List<BulkFinishItem> results;
+    try {
+      results = EveKitUserAccountProvider.getFactory()
+                                         .runTransaction(() -> {
+                                           finished.clear();
+                                           EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                       .getEntityManager();
+                                           Map<Long, ESIEndpointSyncTracker> found = new HashMap<>();
+                                           for (ESIEndpointSyncTracker next : em.createQuery("SELECT c FROM ESIEndpointSyncTracker c WHERE c.tid IN :tids", ESIEndpointSyncTracker.class)
+                                                                                .setParameter("tids", tids)
+                                                                                .getResultList())
+                                             found.put(next.getTid(), next);
+                                           List<BulkFinishItem> batch = new ArrayList<>();
+                                           for (Long tid : tids) {
+                                             ESIEndpointSyncTracker next = found.get(tid);
+                                             batch.add(next == null ? new BulkFinishItem(tid, false, null, BulkFinishItem.Result.NOT_FOUND) :
+                                                           finish(em, next, FINISH_DETAIL, finished));
+                                           }
+                                           return batch;
+                                         });
+    } catch (Exception e) {
+      log.log(Level.WARNING, "error finishing tracker batch", e);
+      return failed(tids, false);
+    }
+    publishTrackers(finished);
+    return results;
+  }
+
+  static List<BulkFinishItem> finishRefTrackers(List<Long> tids) {
+    List<ESIRefEndpointSyncTracker> finished = new ArrayList<>();
+    List<BulkFinishItem> results;
+    try {
+      results = EveKitUserAccountProvider.getFactory()
+                                         .runTransaction(() -> {
+                                           finished.clear();
+                                           EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                       .getEntityManager();
+                                           Map<Long, ESIRefEndpointSyncTracker> found = new HashMap<>();
+                                           for (ESIRefEndpointSyncTracker next : em.createQuery("SELECT c FROM ESIRefEndpointSyncTracker c WHERE c.tid IN :tids", ESIRefEndpointSyncTracker.class)
+                                                                                   .setParameter("tids", tids)
+                                                                                   .getResultList())
+                                             found.put(next.getTid(), next);
+                                           List<BulkFinishItem> batch = new ArrayList<>();
+                                           for (Long tid : tids) {
+                                             ESIRefEndpointSyncTracker next = found.get(tid);
+                                             batch.add(next == null ? new BulkFinishItem(tid, true, null, BulkFinishItem.Result.NOT_FOUND) :
+                                                           finish(em, next, FINISH_DETAIL, finished));
+                                           }
+                                           return batch;
+                                         });
+    } catch (Exception e) {
+      log.log(Level.WARNING, "error finishing ref tracker batch", e);
+      return failed(tids, true);
+    }
+    publishRefTrackers(finished);
+    return results;
+  }
+
+  /**
+   * Select and finish the next batch of started but unfinished trackers which started before a given time, in
+   * tracker ID order.  If the batch is selected but can not be finished, every selected tracker is reported as
+   * FAILED.
+   *
+   * @param endpoint      if not null, only finish trackers for this endpoint
+   * @param startedBefore only finish trackers started before this time
+   * @param after         only finish trackers with IDs greater than this ID
+   * @param max           maximum number of trackers to select
+   * @param detail        detail to record on finished trackers
+   * @return results for the batch, one per selected tracker
+   * @throws IOException on any error selecting trackers
+   */
+  static List<BulkFinishItem> finishMatchingTrackers(ESISyncEndpoint endpoint, long startedBefore, long after,
+                                                     int max, String detail) throws IOException {
+    List<ESIEndpointSyncTracker> selected = new ArrayList<>();
+    List<ESIEndpointSyncTracker> finished = new ArrayList<>();
+    List<BulkFinishItem> results;
+    try {
+      results = EveKitUserAccountProvider.getFactory()
+                                         .runTransaction(() -> {
+                                           selected.clear();
+                                           finished.clear();
+                                           StringBuilder ql = new StringBuilder("SELECT c FROM ESIEndpointSyncTracker c WHERE c.syncStart > 0 AND c.syncStart < :before AND c.syncEnd <= 0 AND c.tid > :after");
+                                           if (endpoint != null) ql.append(" AND c.endpoint = :endpoint");
+                                           ql.append(" ORDER BY c.tid ASC");
+                                           EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                       .getEntityManager();
+                                           TypedQuery<ESIEndpointSyncTracker> query = em.createQuery(ql.toString(), ESIEndpointSyncTracker.class);
+                                           query.setParameter("before", startedBefore);
+                                           query.setParameter("after", after);
+                                           if (endpoint != null) query.setParameter("endpoint", endpoint);
+                                           query.setMaxResults(max);
+                                           selected.addAll(query.getResultList());
+                                           List<BulkFinishItem> batch = new ArrayList<>();
+                                           for (ESIEndpointSyncTracker next : selected) batch.add(finish(em, next, detail, finished));
+                                           return batch;
+                                         });
+    } catch (Exception e) {
+      if (selected.isEmpty()) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        log.log(Level.SEVERE, "query error", e);
+        throw new IOException(e.getCause());
+      }
+      log.log(Level.WARNING, "error finishing tracker batch", e);
+      List<BulkFinishItem> failed = new ArrayList<>();
+      for (ESIEndpointSyncTracker next : selected)
+        failed.add(new BulkFinishItem(next.getTid(), false, String.valueOf(next.getEndpoint()), BulkFinishItem.Result.FAILED));
+      return failed;
+    }
+    publishTrackers(finished);
+    return results;
+  }
+
+  /**
+   * Select and finish the next batch of started but unfinished ref trackers which started before a given time, in
+   * tracker ID order.  If the batch is selected but can not be finished, every selected tracker is reported as
+   * FAILED.
+   *
+   * @param endpoint      if not null, only finish trackers for this endpoint
+   * @param startedBefore only finish trackers started before this time
+   * @param after         only finish trackers with IDs greater than this ID
+   * @param max           maximum number of trackers to select
+   * @param detail        detail to record on finished trackers
+   * @return results for the batch, one per selected tracker
+   * @throws IOException on any error selecting trackers
+   */
+  static List<BulkFinishItem> finishMatchingRefTrackers(ESIRefSyncEndpoint endpoint, long startedBefore, long after,
+                                                        int max, String detail) throws IOException {
+    List<ESIRefEndpointSyncTracker> selected = new ArrayList<>();
+    List<ESIRefEndpointSyncTracker> finished = new ArrayList<>();
+    List<BulkFinishItem> results;
+    try {
+      results = EveKitUserAccountProvider.getFactory()
+                                         .runTransaction(() -> {
+                                           selected.clear();
+                                           finished.clear();
+                                           StringBuilder ql = new StringBuilder("SELECT c FROM ESIRefEndpointSyncTracker c WHERE c.syncStart > 0 AND c.syncStart < :before AND c.syncEnd <= 0 AND c.tid > :after");
+                                           if (endpoint != null) ql.append(" AND c.endpoint = :endpoint");
+                                           ql.append(" ORDER BY c.tid ASC");
+                                           EntityManager em = EveKitUserAccountProvider.getFactory()
+                                                                                       .getEntityManager();
+                                           TypedQuery<ESIRefEndpointSyncTracker> query = em.createQuery(ql.toString(), ESIRefEndpointSyncTracker.class);
+                                           query.setParameter("before", startedBefore);
+                                           query.setParameter("after", after);
+                                           if (endpoint != null) query.setParameter("endpoint", endpoint);
+                                           query.setMaxResults(max);
+                                           selected.addAll(query.getResultList());
+                                           List<BulkFinishItem> batch = new ArrayList<>();
+                                           for (ESIRefEndpointSyncTracker next : selected) batch.add(finish(em, next, detail, finished));
+                                           return batch;
+                                         });
+    } catch (Exception e) {
+      if (selected.isEmpty()) {
+        if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+        log.log(Level.SEVERE, "query error", e);
+        throw new IOException(e.getCause());
+      }
+      log.log(Level.WARNING, "error finishing ref tracker batch", e);
+      List<BulkFinishItem> failed = new ArrayList<>();
+      for (ESIRefEndpointSyncTracker next : selected)
+        failed.add(new BulkFinishItem(next.getTid(), true, String.valueOf(next.getEndpoint()), BulkFinishItem.Result.FAILED));
+      return failed;
+    }
+    publishRefTrackers(finished);
+    return results;
+  }
+
+}
@@ -0,0 +1,399 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESISyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * In-memory rollup of finished sync trackers, organized into fixed width time buckets keyed by sync start time.
+ * Each bucket holds an endpoint by sync state count matrix and a sync duration histogram per endpoint, so a single
+ * pass over site history maintains stats for every endpoint, and duration percentiles over a window are computed
+ * by merging bucket histograms.  Buckets are backfilled lazily from site history the first time a window
+ * needs them, and are sealed once their end time is older than a settle delay.  Only unsealed buckets are
+ * re-counted from history on refresh, so a stats query touches at most a few hours of history regardless of the
+ * size of the requested window.  Only one refresh runs at a time: callers arriving while a refresh is running wait
+ * for it and then use its result.  Trackers force-finished in this module are folded into sealed buckets directly
+ * via {@link #recordFinished(ESIEndpointSyncTracker)}.
+ */
+public class ESISyncStatsRollup {
+  @SuppressWarnings("unused")
+  private static final Logger log = Logger.getLogger(ESISyncStatsRollup.class.getName());
+
+  // Width of each rollup bucket.  Changing this property requires a restart.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BUCKET_WIDTH = "enterprises.orbital.evekit.accountws.stats.bucketWidth";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BUCKET_WIDTH = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+  // Buckets which end more than this long ago are considered settled and are no longer re-counted.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_SETTLE_DELAY = "enterprises.orbital.evekit.accountws.stats.settleDelay";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_SETTLE_DELAY = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+  // Buckets older than this are discarded.  Windows reaching past retention are counted from history.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_RETENTION = "enterprises.orbital.evekit.accountws.stats.retention";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_RETENTION = TimeUnit.MILLISECONDS.convert(31, TimeUnit.DAYS);
+
+  // Minimum time between re-counts of unsealed buckets.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_REFRESH_INTERVAL = "enterprises.orbital.evekit.accountws.stats.refreshInterval";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_REFRESH_INTERVAL = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+
+  // Page size used when scanning tracker history.
+  private static final int HISTORY_PAGE_SIZE = 1000;
+
+  private static final ESISyncEndpoint[] ENDPOINTS = ESISyncEndpoint.values();
+  private static final ESISyncState[] STATES = ESISyncState.values();
+
+  // Buckets keyed by bucket start time
+  private static final NavigableMap<Long, Bucket> buckets = new TreeMap<>();
+  // Earliest bucket start covered by the rollup, or -1 if nothing has been loaded yet
+  private static long loadedFrom = -1;
+  // Buckets starting at or after this time are unsealed and will be re-counted on refresh
+  private static long openFrom = -1;
+  // Time of the last re-count of unsealed buckets
+  private static long lastRefresh = -1;
+  // Incremented whenever bucket coverage changes, so refreshes planned against stale state can be discarded
+  private static long generation = 0;
+  // True while a refresh is scanning history
+  private static boolean refreshing = false;
+
+  /**
+   * Endpoint by sync state counts and durations for a single time bucket.  Also used to total counts over a window.
+   */
+  static class Bucket {
+    // Attempts per endpoint, which may exceed the sum of states if a tracker was finished without a status
+    final int[] attempts = new int[ENDPOINTS.length];
+    // Counts per endpoint and state, rows allocated on first use
+    final int[][] states = new int[ENDPOINTS.length][];
+    // Sync durations per endpoint, allocated on first use
+    final SyncDurationHistogram[] durations = new SyncDurationHistogram[ENDPOINTS.length];
+
+    void add(ESIEndpointSyncTracker tracker) {
+      int row = tracker.getEndpoint()
+                       .ordinal();
+      attempts[row]++;
+      if (tracker.getSyncStart() > 0 && tracker.getSyncEnd() >= tracker.getSyncStart()) {
+        if (durations[row] == null) durations[row] = new SyncDurationHistogram();
+        durations[row].record(tracker.getSyncEnd() - tracker.getSyncStart());
+      }
+      if (tracker.getStatus() == null) return;
+      if (states[row] == null) states[row] = new int[STATES.length];
+      states[row][tracker.getStatus()
+                         .ordinal()]++;
+    }
+
+    void merge(Bucket other) {
+      for (int i = 0; i < ENDPOINTS.length; i++) {
+        attempts[i] += other.attempts[i];
+        if (other.durations[i] != null) {
+          if (durations[i] == null) durations[i] = new SyncDurationHistogram();
+          durations[i].merge(other.durations[i]);
+        }
+        if (other.states[i] == null) continue;
+        if (states[i] == null) states[i] = new int[STATES.length];
+        for (int j = 0; j < STATES.length; j++) states[i][j] += other.states[i][j];
+      }
+    }
+
+    void addTo(SyncEndpointStats stats) {
+      int row = stats.getEndpoint()
+                     .ordinal();
+      int finished = states[row] == null ? 0 : states[row][ESISyncState.FINISHED.ordinal()];
+      stats.addAttempts(attempts[row]);
+      stats.addFailures(attempts[row] - finished);
+      if (durations[row] != null) stats.addDurations(durations[row]);
+      if (states[row] != null) {
+        for (ESISyncState next : STATES) {
+          if (states[row][next.ordinal()] > 0) stats.addStatusCount(next, states[row][next.ordinal()]);
+        }
+      }
+    }
+  }
+
+  private static long alignDown(long time, long width) {
+    return time - Math.floorMod(time, width);
+  }
+
+  private static long alignUp(long time, long width) {
+    long down = alignDown(time, width);
+    return down == time ? time : down + width;
+  }
+
+  /**
+   * Scan finished trackers in descending (syncStart, tid) order, starting before the given continuation time and
+   * ending once trackers start before the given limit.  Pages are chained with {@link ESISyncTrackerCursor} so
+   * trackers sharing a start time across a page boundary are neither skipped nor repeated.
+   *
+   * @param endpoint if not null, restrict the scan to this endpoint
+   * @param contid   sync start time before which trackers will be scanned, or -1 to start with the latest tracker
+   * @param until    earliest sync start time to scan
+   * @param sink     receives each scanned tracker
+   * @throws IOException on any error scanning history
+   */
+  private static void scanHistory(ESISyncEndpoint endpoint, long contid, long until,
+                                  Consumer<ESIEndpointSyncTracker> sink) throws IOException {
+    ESISyncTrackerCursor cursor = ESISyncTrackerCursor.before(contid);
+    List<ESIEndpointSyncTracker> results;
+    do {
+      results = ESISyncTrackerCursor.getHistory(null, endpoint, cursor, HISTORY_PAGE_SIZE);
+      for (ESIEndpointSyncTracker tracker : results) {
+        if (tracker.getSyncStart() < until) return;
+        cursor = ESISyncTrackerCursor.after(tracker);
+        sink.accept(tracker);
+      }
+    } while (!results.isEmpty());
+  }
+
+  static void addToBucket(NavigableMap<Long, Bucket> target, ESIEndpointSyncTracker tracker, long width) {
+    target.computeIfAbsent(alignDown(tracker.getSyncStart(), width), k -> new Bucket())
+          .add(tracker);
+  }
+
+  /**
+   * History scans required to bring the rollup up to date, planned under the class lock and carried out
+   * without it.
+   */
+  static class Refresh {
+    // Rollup generation the plan was made against
+    final long generation;
+    // Start of unsealed buckets to re-count, or -1 if no re-count is needed
+    final long recountFrom;
+    // New seal boundary once the re-count is applied
+    final long sealBoundary;
+    // Backfill range [backfillTo, backfillFrom), or -1 if no backfill is needed
+    final long backfillFrom;
+    final long backfillTo;
+    // Re-counted and backfilled buckets
+    final NavigableMap<Long, Bucket> recounted = new TreeMap<>();
+    final NavigableMap<Long, Bucket> backfilled = new TreeMap<>();
+
+    Refresh(long generation, long recountFrom, long sealBoundary, long backfillFrom, long backfillTo) {
+      this.generation = generation;
+      this.recountFrom = recountFrom;
+      this.sealBoundary = sealBoundary;
+      this.backfillFrom = backfillFrom;
+      this.backfillTo = backfillTo;
+    }
+  }
+
+  /**
+   * Plan the scans needed to bring the rollup up to date and make sure it covers as much of the range starting
+   * at "from" as retention allows.  Caller must hold the class lock.
+   *
+   * @param now   current time
+   * @param from  aligned start of the range which should be covered
+   * @param width bucket width
+   * @return required scans, or null if the rollup is already up to date
+   */
+  static Refresh plan(long now, long from, long width) {
+    long settle = OrbitalProperties.getLongGlobalProperty(PROP_SETTLE_DELAY, DEF_SETTLE_DELAY);
+    long retention = OrbitalProperties.getLongGlobalProperty(PROP_RETENTION, DEF_RETENTION);
+    long interval = OrbitalProperties.getLongGlobalProperty(PROP_REFRESH_INTERVAL, DEF_REFRESH_INTERVAL);
+    long sealBoundary = alignDown(now - settle, width);
+    long horizon = alignDown(now - retention, width);
+    boolean empty = loadedFrom < 0;
+    long curLoaded = empty ? sealBoundary : loadedFrom;
+    long curOpen = empty ? sealBoundary : openFrom;
+
+    // Discard buckets past retention
+    if (curLoaded < horizon) {
+      buckets.headMap(horizon, false)
+             .clear();
+      curLoaded = horizon;
+      curOpen = Math.max(curOpen, horizon);
+      if (!empty) {
+        loadedFrom = curLoaded;
+        openFrom = curOpen;
+        generation++;
+      }
+    }
+
+    boolean recount = empty || now - lastRefresh >= interval;
+    long target = Math.max(from, horizon);
+    boolean backfill = target < curLoaded;
+    if (!recount && !backfill) return null;
+    return new Refresh(generation, recount ? curOpen : -1, sealBoundary, backfill ? curLoaded : -1, target);
+  }
+
+  /**
+   * Run the scans for a refresh plan.  Must be called without holding the class lock.
+   *
+   * @param refresh refresh plan
+   * @param width   bucket width
+   * @throws IOException on any error scanning history
+   */
+  private static void scan(Refresh refresh, long width) throws IOException {
+    if (refresh.recountFrom >= 0)
+      scanHistory(null, -1, refresh.recountFrom, tracker -> addToBucket(refresh.recounted, tracker, width));
+    if (refresh.backfillFrom >= 0)
+      scanHistory(null, refresh.backfillFrom, refresh.backfillTo, tracker -> addToBucket(refresh.backfilled, tracker, width));
+  }
+
+  /**
+   * Apply the results of a refresh plan.  The results are discarded if the rollup changed while the scans were
+   * running, in which case the rollup is left to the refresh which changed it.  Caller must hold the class lock.
+   *
+   * @param refresh completed refresh plan
+   * @param now     time the plan was made
+   */
+  static void apply(Refresh refresh, long now) {
+    if (refresh.generation != generation) return;
+    if (loadedFrom < 0) {
+      if (refresh.recountFrom < 0) return;
+      loadedFrom = refresh.recountFrom;
+      openFrom = refresh.recountFrom;
+    }
+    if (refresh.recountFrom >= 0) {
+      buckets.tailMap(openFrom, true)
+             .clear();
+      buckets.putAll(refresh.recounted.tailMap(openFrom, true));
+      openFrom = Math.max(openFrom, refresh.sealBoundary);
+      lastRefresh = now;
+    }
+    if (refresh.backfillFrom >= 0) {
+      buckets.putAll(refresh.backfilled);
+      loadedFrom = refresh.backfillTo;
+    }
+    generation++;
+  }
+
+  /**
+   * Total the buckets starting at or after the given time.  Caller must hold the class lock.
+   *
+   * @param from earliest bucket start to include
+   * @return totals over the buckets
+   */
+  static Bucket sum(long from) {
+    Bucket total = new Bucket();
+    for (Bucket next : buckets.tailMap(from, true)
+                              .values())
+      total.merge(next);
+    return total;
+  }
+
+  /**
+   * Discard all rollup state.  Used by tests.
+   */
+  static synchronized void reset() {
+    buckets.clear();
+    loadedFrom = -1;
+    openFrom = -1;
+    lastRefresh = -1;
+    generation = 0;
+  }
+
+  /**
+   * Count all finished trackers started at or after the given time.  Whole buckets are summed from the rollup.
+   * The partial bucket at the start of the window, and any part of the window older than retention, are counted
+   * directly from history.  History is never scanned while holding the class lock.
+   *
+   * @param endpoint if not null, the history scan is restricted to this endpoint
+   * @param since    earliest sync start time to include
+   * @return counts for the window
+   * @throws IOException on any error reading history
+   */
+  private static Bucket collect(ESISyncEndpoint endpoint, long since) throws IOException {
+    long now = OrbitalProperties.getCurrentTime();
+    long width = OrbitalProperties.getLongGlobalProperty(PROP_BUCKET_WIDTH, DEF_BUCKET_WIDTH);
+    long alignedSince = alignUp(since, width);
+    Bucket total = new Bucket();
+    long rawUntil;
+    Refresh refresh;
+
+    synchronized (ESISyncStatsRollup.class) {
+      // Wait for a running refresh, which usually leaves nothing for this caller to scan
+      try {
+        while (refreshing) ESISyncStatsRollup.class.wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread()
+              .interrupt();
+        throw new IOException(e);
+      }
+      refresh = plan(now, alignedSince, width);
+      if (refresh != null) refreshing = true;
+    }
+
+    if (refresh != null) {
+      try {
+        scan(refresh, width);
+      } finally {
+        synchronized (ESISyncStatsRollup.class) {
+          refreshing = false;
+          ESISyncStatsRollup.class.notifyAll();
+        }
+      }
+    }
+
+    synchronized (ESISyncStatsRollup.class) {
+      if (refresh != null) apply(refresh, now);
+      rawUntil = loadedFrom < 0 ? alignedSince : Math.max(alignedSince, loadedFrom);
+      total.merge(sum(rawUntil));
+    }
+
+    scanHistory(endpoint, rawUntil, since, total::add);
+    return total;
+  }
+
+  /**
+   * Compute attempts and failures for an endpoint for all finished trackers started at or after the given time.
+   *
+   * @param endpoint endpoint for which stats should be computed
+   * @param since    earliest sync start time to include
+   * @return attempt, failure and per-state counts for the endpoint
+   * @throws IOException on any error reading history
+   */
+  public static SyncEndpointStats getStats(ESISyncEndpoint endpoint, long since) throws IOException {
+    SyncEndpointStats stats = new SyncEndpointStats(endpoint, 0, 0);
+    collect(endpoint, since).addTo(stats);
+    return stats;
+  }
+
+  /**
+   * Compute stats for every endpoint for all finished trackers started at or after the given time.
+   * Endpoints with no attempts in the window are omitted.
+   *
+   * @param since earliest sync start time to include
+   * @return attempt, failure and per-state counts for each endpoint
+   * @throws IOException on any error reading history
+   */
+  public static List<SyncEndpointStats> getAllStats(long since) throws IOException {
+    Bucket total = collect(null, since);
+    List<SyncEndpointStats> results = new ArrayList<>();
+    for (ESISyncEndpoint endpoint : ENDPOINTS) {
+      SyncEndpointStats stats = new SyncEndpointStats(endpoint, 0, 0);
+      total.addTo(stats);
+      if (stats.getAttempts() > 0) results.add(stats);
+    }
+    return results;
+  }
+
+  /**
+   * Record a tracker which was finished in this module.  Callers must only record a tracker when it actually
+   * moved from unfinished to finished, otherwise it would be counted twice.  Trackers which fall into unsealed
+   * buckets will be picked up on the next refresh and are ignored here.
+   *
+   * @param tracker the finished tracker
+   */
+  public static synchronized void recordFinished(ESIEndpointSyncTracker tracker) {
+    if (tracker.getSyncStart() <= 0 || tracker.getSyncEnd() <= 0 || loadedFrom < 0) return;
+    long width = OrbitalProperties.getLongGlobalProperty(PROP_BUCKET_WIDTH, DEF_BUCKET_WIDTH);
+    if (tracker.getSyncStart() >= loadedFrom && tracker.getSyncStart() < openFrom)
+      addToBucket(buckets, tracker, width);
+  }
+
+}
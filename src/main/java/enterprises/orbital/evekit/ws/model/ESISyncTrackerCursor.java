@@ -0,0 +1,212 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESIRefEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESISyncEndpoint;
+
+import javax.persistence.TypedQuery;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Opaque keyset cursor over finished sync trackers, or finished reference data sync trackers, ordered by descending
+ * (syncStart, tid).  Unlike a bare sync start time, a cursor never skips or repeats trackers which share a start time
+ * across a page boundary.
+ */
+public class ESISyncTrackerCursor {
+  private static final Logger log = Logger.getLogger(ESISyncTrackerCursor.class.getName());
+
+  // Header carrying the cursor for the next page of results
+  @SuppressWarnings("WeakerAccess")
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  private final long syncStart;
+  private final long tid;
+
+  private ESISyncTrackerCursor(long syncStart, long tid) {
+    this.syncStart = syncStart;
+    this.tid = tid;
+  }
+
+  /**
+   * Create a cursor which continues after the given tracker.
+   *
+   * @param tracker last tracker of the previous page
+   * @return cursor positioned after the tracker
+   */
+  public static ESISyncTrackerCursor after(ESIEndpointSyncTracker tracker) {
+    return new ESISyncTrackerCursor(tracker.getSyncStart(), tracker.getTid());
+  }
+
+  /**
+   * Create a cursor which continues after the given reference data tracker.
+   *
+   * @param tracker last tracker of the previous page
+   * @return cursor positioned after the tracker
+   */
+  public static ESISyncTrackerCursor after(ESIRefEndpointSyncTracker tracker) {
+    return new ESISyncTrackerCursor(tracker.getSyncStart(), tracker.getTid());
+  }
+
+  /**
+   * Create a cursor which continues with trackers started strictly before the given time.  This is equivalent to
+   * the legacy "contid" parameter.
+   *
+   * @param contid sync start time before which trackers will be returned, or -1 to start with the latest tracker
+   * @return cursor positioned before the given time, or null to start with the latest tracker
+   */
+  public static ESISyncTrackerCursor before(long contid) {
+    return contid == -1 ? null : new ESISyncTrackerCursor(contid, Long.MIN_VALUE);
+  }
+
+  /**
+   * Encode this cursor as an opaque string.
+   *
+   * @return encoded cursor
+   */
+  public String encode() {
+    String raw = syncStart + ":" + tid;
+    return Base64.getUrlEncoder()
+                 .withoutPadding()
+                 .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a cursor previously created by {@link #encode()}.
+   *
+   * @param encoded encoded cursor
+   * @return decoded cursor
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public static ESISyncTrackerCursor decode(String encoded) {
+    try {
+      String raw = new String(Base64.getUrlDecoder()
+                                    .decode(encoded), StandardCharsets.UTF_8);
+      int split = raw.indexOf(':');
+      if (split < 0) throw new IllegalArgumentException("malformed cursor");
+      return new ESISyncTrackerCursor(Long.parseLong(raw.substring(0, split)), Long.parseLong(raw.substring(split + 1)));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("malformed cursor", e);
+    }
+  }
+
+  /**
+   * Retrieve a page of finished trackers in descending (syncStart, tid) order.
+   *
+   * @param account    if not null, only trackers for this account are returned
+   * @param cursor     if not null, only trackers after this cursor are returned
+   * @param maxResults maximum number of trackers to return
+   * @return the next page of trackers
+   * @throws IOException on any error retrieving trackers
+   */
+  public static List<ESIEndpointSyncTracker> getHistory(SynchronizedEveAccount account, ESISyncTrackerCursor cursor,
+                                                        int maxResults) throws IOException {
+    return getHistory(account, null, cursor, maxResults);
+  }
+
+  /**
+   * Retrieve a page of finished trackers in descending (syncStart, tid) order.
+   *
+   * @param account    if not null, only trackers for this account are returned
+   * @param endpoint   if not null, only trackers for this endpoint are returned
+   * @param cursor     if not null, only trackers after this cursor are returned
+   * @param maxResults maximum number of trackers to return
+   * @return the next page of trackers
+   * @throws IOException on any error retrieving trackers
+   */
+  public static List<ESIEndpointSyncTracker> getHistory(SynchronizedEveAccount account, ESISyncEndpoint endpoint,
+                                                        ESISyncTrackerCursor cursor, int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        StringBuilder ql = new StringBuilder("SELECT c FROM ESIEndpointSyncTracker c WHERE c.syncEnd > 0");
+                                        if (account != null) ql.append(" AND c.account = :account");
+                                        if (endpoint != null) ql.append(" AND c.endpoint = :endpoint");
+                                        if (cursor != null)
+                                          ql.append(" AND (c.syncStart < :start OR (c.syncStart = :start AND c.tid < :tid))");
+                                        ql.append(" ORDER BY c.syncStart DESC, c.tid DESC");
+                                        TypedQuery<ESIEndpointSyncTracker> query = EveKitUserAccountProvider.getFactory()
+                                                                                                            .getEntityManager()
+                                                                                                            .createQuery(ql.toString(), ESIEndpointSyncTracker.class);
+                                        if (account != null) query.setParameter("account", account);
+                                        if (endpoint != null) query.setParameter("endpoint", endpoint);
+                                        if (cursor != null) {
+                                          query.setParameter("start", cursor.syncStart);
+                                          query.setParameter("tid", cursor.tid);
+                                        }
+                                        query.setMaxResults(maxResults);
+                                        return query.getResultList();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Retrieve a page of finished reference data trackers in descending (syncStart, tid) order.
+   *
+   * @param cursor     if not null, only trackers after this cursor are returned
+   * @param maxResults maximum number of trackers to return
+   * @return the next page of trackers
+   * @throws IOException on any error retrieving trackers
+   */
+  public static List<ESIRefEndpointSyncTracker> getRefHistory(ESISyncTrackerCursor cursor,
+                                                              int maxResults) throws IOException {
+    try {
+      return EveKitUserAccountProvider.getFactory()
+                                      .runTransaction(() -> {
+                                        StringBuilder ql = new StringBuilder("SELECT c FROM ESIRefEndpointSyncTracker c WHERE c.syncEnd > 0");
+                                        if (cursor != null)
+                                          ql.append(" AND (c.syncStart < :start OR (c.syncStart = :start AND c.tid < :tid))");
+                                        ql.append(" ORDER BY c.syncStart DESC, c.tid DESC");
+                                        TypedQuery<ESIRefEndpointSyncTracker> query = EveKitUserAccountProvider.getFactory()
+                                                                                                               .getEntityManager()
+                                                                                                               .createQuery(ql.toString(), ESIRefEndpointSyncTracker.class);
+                                        if (cursor != null) {
+                                          query.setParameter("start", cursor.syncStart);
+                                          query.setParameter("tid", cursor.tid);
+                                        }
+                                        query.setMaxResults(maxResults);
+                                        return query.getResultList();
+                                      });
+    } catch (Exception e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      log.log(Level.SEVERE, "query error", e);
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Add next page headers to a response.  If the page is full, the response carries the cursor for the next page
+   * and a "next" link which repeats the current request with the new cursor.
+   *
+   * @param builder    response under construction
+   * @param request    current request
+   * @param page       page of results being returned
+   * @param maxResults page size requested
+   * @return the response builder
+   */
+  public static Response.ResponseBuilder addNextPage(Response.ResponseBuilder builder, HttpServletRequest request,
+                                                     List<ESIEndpointSyncTracker> page, int maxResults) {
+    if (page.isEmpty() || page.size() < maxResults) return builder;
+    String next = after(page.get(page.size() - 1)).encode();
+    UriBuilder link = UriBuilder.fromUri(request.getRequestURL()
+                                                .toString())
+                                .replaceQuery(request.getQueryString())
+                                .replaceQueryParam("contid")
+                                .replaceQueryParam("cursor", next);
+    return builder.header(NEXT_CURSOR_HEADER, next)
+                  .header("Link", "<" + link.build() + ">; rel=\"next\"");
+  }
+}
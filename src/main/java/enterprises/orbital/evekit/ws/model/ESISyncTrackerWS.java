@@ -8,16 +8,21 @@ import enterprises.orbital.evekit.account.SynchronizedEveAccount;
 import enterprises.orbital.evekit.account.UserNotFoundException;
 import enterprises.orbital.evekit.model.*;
 import enterprises.orbital.evekit.ws.account.AccountWS;
+import enterprises.orbital.evekit.ws.account.SyncAccountCache;
+import enterprises.orbital.evekit.ws.common.CacheStats;
 import enterprises.orbital.evekit.ws.common.ServiceError;
-import enterprises.orbital.oauth.AuthUtil;
+import enterprises.orbital.evekit.ws.common.StreamingJsonArray;
+import enterprises.orbital.evekit.ws.common.UserCache;
 import io.swagger.annotations.*;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,13 +42,20 @@ public class ESISyncTrackerWS {
   private static final int DEF_MAX_ACCOUNT_SYNC_HISTORY = 300;
   private static final int DEF_MAX_REF_SYNC_HISTORY = 300;
   private static final int DEF_MAX_SITE_HISTORY = 1000;
+  // JAX-RS 2.0 has no constant for server-sent events
+  private static final String SSE_MEDIA_TYPE = "text/event-stream";
+
+  static {
+    // This module has no application lifecycle hook, so background tasks start with the first tracker request
+    StuckTrackerReaper.start();
+  }
 
   @SuppressWarnings("Duplicates")
   @Path("/sync_history/{aid}")
   @GET
   @ApiOperation(
       value = "Retrieve synchronization history for an account",
-      notes = "Retrieves synchronization history ordered in descending order by sync start time")
+      notes = "Retrieves synchronization history ordered in descending order by sync start time.  When more results may be available, the X-Next-Cursor header carries a cursor for the next page and the Link header carries a next page link.")
   @ApiResponses(
       value = {
           @ApiResponse(
@@ -51,6 +63,10 @@ public class ESISyncTrackerWS {
               message = "account sync history",
               response = ESIEndpointSyncTracker.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
           @ApiResponse(
               code = 401,
               message = "requesting user not authenticated",
@@ -76,21 +92,111 @@ public class ESISyncTrackerWS {
           value = "Optional sync start time before which results will be returned") long contid,
       @QueryParam("maxresults") @ApiParam(
           name = "maxresults",
-          value = "Maximum number of results to return") int maxResults) {
+          value = "Maximum number of results to return") int maxResults,
+      @QueryParam("cursor") @ApiParam(
+          name = "cursor",
+          value = "Optional opaque cursor returned with a previous page.  Takes precedence over contid.") String cursor) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return AccountWS.createUserNotLoggedResponse();
 
     try {
       // Retrieve SynchronizedEveAccount
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Set defaults
       maxResults = OrbitalProperties.getNonzeroLimited(maxResults, (int) PersistentProperty
           .getLongPropertyWithFallback(OrbitalProperties.getPropertyName(ESIEndpointSyncTracker.class, "maxresults"), DEF_MAX_ACCOUNT_SYNC_HISTORY));
 
       // Retrieve and return history
-      List<ESIEndpointSyncTracker> results = ESIEndpointSyncTracker.getAllHistory(account, contid, maxResults);
+      ESISyncTrackerCursor start = cursor != null ? ESISyncTrackerCursor.decode(cursor) : ESISyncTrackerCursor.before(contid);
+      List<ESIEndpointSyncTracker> results = ESISyncTrackerCursor.getHistory(account, start, maxResults);
+      return ESISyncTrackerCursor.addNextPage(Response.ok(), request, results, maxResults)
+                                 .entity(results)
+                                 .build();
+    } catch (AccountNotFoundException e) {
+      ServiceError errMsg = new ServiceError(Status.NOT_FOUND.getStatusCode(), "Sync account with the given ID not found");
+      return Response.status(Status.NOT_FOUND)
+                     .entity(errMsg)
+                     .build();
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "query error", e);
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving history, contact admin if this problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  @SuppressWarnings("Duplicates")
+  @Path("/sync_history_stream/{aid}")
+  @GET
+  @ApiOperation(
+      value = "Stream synchronization history for an account",
+      notes = "Streams synchronization history ordered in descending order by sync start time.  Results are retrieved and written in pages so that large exports use constant memory.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "account sync history",
+              response = ESIEndpointSyncTracker.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 404,
+              message = "requested account ID not found",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response requestSyncHistoryStream(
+      @Context HttpServletRequest request,
+      @PathParam("aid") @ApiParam(
+          name = "aid",
+          required = true,
+          value = "Sync Account ID") long aid,
+      @QueryParam("contid") @DefaultValue("-1") @ApiParam(
+          name = "contid",
+          defaultValue = "-1",
+          value = "Optional sync start time before which results will be returned") long contid,
+      @QueryParam("maxresults") @ApiParam(
+          name = "maxresults",
+          value = "Maximum number of results to return") int maxResults,
+      @QueryParam("cursor") @ApiParam(
+          name = "cursor",
+          value = "Optional opaque cursor returned with a previous page.  Takes precedence over contid.") String cursor) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null) return AccountWS.createUserNotLoggedResponse();
+
+    try {
+      // Retrieve SynchronizedEveAccount
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
+
+      // Set defaults
+      maxResults = OrbitalProperties.getNonzeroLimited(maxResults, (int) PersistentProperty
+          .getLongPropertyWithFallback(OrbitalProperties.getPropertyName(ESIEndpointSyncTracker.class, "maxresults"), DEF_MAX_ACCOUNT_SYNC_HISTORY));
+
+      // Stream history
+      ESISyncTrackerCursor start = cursor != null ? ESISyncTrackerCursor.decode(cursor) : ESISyncTrackerCursor.before(contid);
+      StreamingJsonArray<ESIEndpointSyncTracker> results = new StreamingJsonArray<>(
+          (last, max) -> ESISyncTrackerCursor.getHistory(account, last == null ? start : ESISyncTrackerCursor.after(last), max),
+          maxResults, StreamingJsonArray.DEF_PAGE_SIZE);
       return Response.ok()
                      .entity(results)
                      .build();
@@ -99,6 +205,11 @@ public class ESISyncTrackerWS {
       return Response.status(Status.NOT_FOUND)
                      .entity(errMsg)
                      .build();
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
     } catch (IOException e) {
       log.log(Level.WARNING, "query error", e);
       ServiceError errMsg = new ServiceError(
@@ -141,15 +252,15 @@ public class ESISyncTrackerWS {
           required = true,
           value = "Sync Account ID") long aid) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null) return AccountWS.createUserNotLoggedResponse();
 
     try {
       // Retrieve SynchronizedEveAccount
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Retrieve and return next trackers
-      List<ESIEndpointSyncTracker> results = ESIEndpointSyncTracker.getAllUnfinishedTrackers(account);
+      List<ESIEndpointSyncTracker> results = UnfinishedTrackerCache.getUnfinishedTrackers(account);
       return Response.ok()
                      .entity(results)
                      .build();
@@ -168,6 +279,71 @@ public class ESISyncTrackerWS {
     }
   }
 
+  @Path("/next_sync_cache_stats")
+  @GET
+  @ApiOperation(
+      value = "Retrieve unfinished tracker cache metrics",
+      notes = "Returns size, hit, miss, expiration, eviction and invalidation counts for the cache which serves next_sync requests")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "Unfinished tracker cache metrics",
+              response = CacheStats.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+      })
+  public Response requestNextSyncCacheStats(
+      @Context HttpServletRequest request) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null || !user.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    return Response.ok()
+                   .entity(UnfinishedTrackerCache.getStats())
+                   .build();
+  }
+
+  @Path("/reaper_runs")
+  @GET
+  @ApiOperation(
+      value = "Retrieve recent stuck tracker reaper runs",
+      notes = "Returns recent runs of the background task which force-finishes trackers started longer ago than their endpoint threshold, most recent first, including the trackers reaped and any per-endpoint errors for each run.  The reaper only runs when enabled by configuration.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "Recent reaper runs",
+              response = ReaperRun.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+      })
+  public Response requestReaperRuns(
+      @Context HttpServletRequest request) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null || !user.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    return Response.ok()
+                   .entity(StuckTrackerReaper.getRecentRuns())
+                   .build();
+  }
+
   @Path("/sync_started")
   @GET
   @ApiOperation(
@@ -192,7 +368,7 @@ public class ESISyncTrackerWS {
   public Response requestStartedSync(
       @Context HttpServletRequest request) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null || !user.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -220,7 +396,7 @@ public class ESISyncTrackerWS {
   @GET
   @ApiOperation(
       value = "Retrieve all finished synchronization trackers for a given endpoint type since a given timestamp",
-      notes = "Retrieves finished synchronization trackers for a given endpoint since a given timestamp")
+      notes = "Retrieves finished synchronization trackers ordered in descending order by sync start time.  When more results may be available, the X-Next-Cursor header carries a cursor for the next page and the Link header carries a next page link.")
   @ApiResponses(
       value = {
           @ApiResponse(
@@ -228,6 +404,10 @@ public class ESISyncTrackerWS {
               message = "list of finished sync trackers for a given endpoint since a given time",
               response = ESIEndpointSyncTracker.class,
               responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
           @ApiResponse(
               code = 401,
               message = "requesting user not authenticated or not an admin",
@@ -245,9 +425,12 @@ public class ESISyncTrackerWS {
           value = "Optional sync start time before which results will be returned") long contid,
       @QueryParam("maxresults") @ApiParam(
           name = "maxresults",
-          value = "Maximum number of results to return") int maxResults) {
+          value = "Maximum number of results to return") int maxResults,
+      @QueryParam("cursor") @ApiParam(
+          name = "cursor",
+          value = "Optional opaque cursor returned with a previous page.  Takes precedence over contid.") String cursor) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null || !user.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -261,11 +444,17 @@ public class ESISyncTrackerWS {
           .getLongPropertyWithFallback(OrbitalProperties.getPropertyName(ESIEndpointSyncTracker.class, "maxresults"), DEF_MAX_SITE_HISTORY));
 
       // Retrieve and return history
-      List<ESIEndpointSyncTracker> results = ESIEndpointSyncTracker.getAllSiteHistory(contid, maxResults);
-      return Response.ok()
-                     .entity(results)
-                     .build();
+      ESISyncTrackerCursor start = cursor != null ? ESISyncTrackerCursor.decode(cursor) : ESISyncTrackerCursor.before(contid);
+      List<ESIEndpointSyncTracker> results = ESISyncTrackerCursor.getHistory(null, start, maxResults);
+      return ESISyncTrackerCursor.addNextPage(Response.ok(), request, results, maxResults)
+                                 .entity(results)
+                                 .build();
 
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
     } catch (IOException e) {
       log.log(Level.WARNING, "query error", e);
       ServiceError errMsg = new ServiceError(
@@ -276,10 +465,74 @@ public class ESISyncTrackerWS {
     }
   }
 
+  @Path("/sync_site_history_stream")
+  @GET
+  @ApiOperation(
+      value = "Stream all finished synchronization trackers",
+      notes = "Streams finished synchronization trackers in descending order by sync start time.  Results are retrieved and written in pages so that large exports use constant memory.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "list of finished sync trackers",
+              response = ESIEndpointSyncTracker.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "malformed cursor",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+      })
+  public Response requestSyncSiteHistoryStream(
+      @Context HttpServletRequest request,
+      @QueryParam("contid") @DefaultValue("-1") @ApiParam(
+          name = "contid",
+          defaultValue = "-1",
+          value = "Optional sync start time before which results will be returned") long contid,
+      @QueryParam("maxresults") @ApiParam(
+          name = "maxresults",
+          value = "Maximum number of results to return") int maxResults,
+      @QueryParam("cursor") @ApiParam(
+          name = "cursor",
+          value = "Optional opaque cursor returned with a previous page.  Takes precedence over contid.") String cursor) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null || !user.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    // Set defaults
+    maxResults = OrbitalProperties.getNonzeroLimited(maxResults, (int) PersistentProperty
+        .getLongPropertyWithFallback(OrbitalProperties.getPropertyName(ESIEndpointSyncTracker.class, "maxresults"), DEF_MAX_SITE_HISTORY));
+
+    try {
+      // Stream history
+      ESISyncTrackerCursor start = cursor != null ? ESISyncTrackerCursor.decode(cursor) : ESISyncTrackerCursor.before(contid);
+      StreamingJsonArray<ESIEndpointSyncTracker> results = new StreamingJsonArray<>(
+          (last, max) -> ESISyncTrackerCursor.getHistory(null, last == null ? start : ESISyncTrackerCursor.after(last), max),
+          maxResults, StreamingJsonArray.DEF_PAGE_SIZE);
+      return Response.ok()
+                     .entity(results)
+                     .build();
+    } catch (IllegalArgumentException e) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Malformed cursor");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
   @Path("/sync_site_stats")
   @GET
   @ApiOperation(
-      value = "Retrieve endpoint synchronization stats (attemps and failures) since a given time")
+      value = "Retrieve endpoint synchronization stats (attemps and failures) since a given time",
+      notes = "Stats include counts by sync state and sync duration percentiles in milliseconds.  Stats are computed from a periodically refreshed rollup of finished trackers and may lag recent history by up to a minute")
   @ApiResponses(
       value = {
           @ApiResponse(
@@ -307,7 +560,7 @@ public class ESISyncTrackerWS {
           required = true,
           value = "timestamp from which stats should be calculated") long since) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null || !user.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -316,21 +569,59 @@ public class ESISyncTrackerWS {
     }
 
     try {
-      SyncEndpointStats stats = new SyncEndpointStats(endpoint, 0, 0);
-      long contid = -1;
-      List<ESIEndpointSyncTracker> results;
-      compute_stats:
-      do {
-        results = ESIEndpointSyncTracker.getAllSiteHistory(endpoint, contid, 1000);
-        if (results.isEmpty()) break;
-        for (ESIEndpointSyncTracker tracker : results) {
-          if (tracker.getSyncStart() < since) break compute_stats;
-          contid = tracker.getSyncStart();
-          stats.incrementAttempts();
-          if (tracker.getStatus() != ESISyncState.FINISHED) stats.incrementFailures();
-        }
-      } while (true);
+      SyncEndpointStats stats = ESISyncStatsRollup.getStats(endpoint, since);
+      return Response.ok()
+                     .entity(stats)
+                     .build();
+
+    } catch (IOException e) {
+      log.log(Level.WARNING, "query error", e);
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error retrieving site history, contact admin if this problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
+  @Path("/sync_site_stats_all")
+  @GET
+  @ApiOperation(
+      value = "Retrieve synchronization stats for all endpoints since a given time",
+      notes = "Returns attempts, failures, counts by sync state and sync duration percentiles for every endpoint with at least one attempt in the window, computed in a single pass")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "Sync stats for all endpoints",
+              response = SyncEndpointStats.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response requestSyncSiteStatsAll(
+      @Context HttpServletRequest request,
+      @QueryParam("since") @ApiParam(
+          name = "since",
+          required = true,
+          value = "timestamp from which stats should be calculated") long since) {
+    // Retrieve current logged in user
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null || !user.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
 
+    try {
+      List<SyncEndpointStats> stats = ESISyncStatsRollup.getAllStats(since);
       return Response.ok()
                      .entity(stats)
                      .build();
@@ -384,7 +675,7 @@ public class ESISyncTrackerWS {
           required = true,
           value = "Sync Tracker ID") long tid) {
     // Retrieve current logged in user
-    EveKitUserAccount admin = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
     if (admin == null || !admin.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -393,17 +684,21 @@ public class ESISyncTrackerWS {
     }
     try {
       // Extract user
-      EveKitUserAccount user = EveKitUserAccount.getAccount(uid);
+      EveKitUserAccount user = UserCache.getUser(uid);
 
       // Extract account
-      SynchronizedEveAccount account = SynchronizedEveAccount.getSynchronizedAccount(user, aid, true);
+      SynchronizedEveAccount account = SyncAccountCache.getSynchronizedAccount(user, aid, true);
 
       // Extract tracker
       ESIEndpointSyncTracker tracker = ESIEndpointSyncTracker.get(tid);
       if (!tracker.getAccount().equals(account)) throw new TrackerNotFoundException("No such tracker found for the given user and account");
 
-      // Finish tracker
-      ESIEndpointSyncTracker.finishTracker(tracker);
+      // Finish tracker, only counting it if it wasn't already finished
+      boolean unfinished = tracker.getSyncEnd() <= 0;
+      tracker = ESIEndpointSyncTracker.finishTracker(tracker);
+      if (unfinished) ESISyncStatsRollup.recordFinished(tracker);
+      UnfinishedTrackerCache.invalidate(account.getAid());
+      SyncTrackerEvents.forceFinished(tracker);
       return Response.ok()
                      .build();
     } catch (UserNotFoundException e) {
@@ -434,6 +729,86 @@ public class ESISyncTrackerWS {
     }
   }
 
+  @Path("/finish_trackers")
+  @POST
+  @ApiOperation(
+      value = "Force many trackers to be marked finished",
+      notes = "Force-finishes ESI and ref trackers selected either by ID or by a filter.  Finished trackers are marked with WARNING status.  All selected trackers are finished before per-tracker results are returned.  Trackers are finished in batches, each in a single transaction.  A batch which fails is reported as FAILED and, when selecting by filter, no further batches are attempted.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "per-tracker results",
+              response = BulkFinishItem.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 400,
+              message = "neither tracker IDs nor a start time filter were provided, or both were provided",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 500,
+              message = "Internal account service service error",
+              response = ServiceError.class),
+      })
+  public Response requestFinishTrackers(
+      @Context HttpServletRequest request,
+      @QueryParam("tid") @ApiParam(
+          name = "tid",
+          allowMultiple = true,
+          value = "IDs of ESI trackers to finish") List<Long> tids,
+      @QueryParam("reftid") @ApiParam(
+          name = "reftid",
+          allowMultiple = true,
+          value = "IDs of ref trackers to finish") List<Long> refTids,
+      @QueryParam("endpoint") @ApiParam(
+          name = "endpoint",
+          value = "Optional filter: only finish ESI trackers for this endpoint") ESISyncEndpoint endpoint,
+      @QueryParam("refendpoint") @ApiParam(
+          name = "refendpoint",
+          value = "Optional filter: only finish ref trackers for this endpoint") ESIRefSyncEndpoint refEndpoint,
+      @QueryParam("startedbefore") @DefaultValue("-1") @ApiParam(
+          name = "startedbefore",
+          defaultValue = "-1",
+          value = "Filter: finish started but unfinished trackers which started before this time.  If only one of endpoint or refendpoint is set, only trackers of that kind are finished.") long startedBefore) {
+    // Retrieve current logged in user
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
+    if (admin == null || !admin.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    boolean byID = (tids != null && !tids.isEmpty()) || (refTids != null && !refTids.isEmpty());
+    boolean byFilter = startedBefore > 0;
+    if (byID == byFilter) {
+      ServiceError errMsg = new ServiceError(Status.BAD_REQUEST.getStatusCode(), "Provide either tracker IDs or a started before time, but not both");
+      return Response.status(Status.BAD_REQUEST)
+                     .entity(errMsg)
+                     .build();
+    }
+
+    try {
+      List<BulkFinishItem> results = byID ?
+          BulkTrackerFinisher.finishByID(tids != null ? tids : Collections.emptyList(), refTids != null ? refTids : Collections.emptyList()) :
+          BulkTrackerFinisher.finishMatching(endpoint, refEndpoint, startedBefore);
+      return Response.ok()
+                     .entity(results)
+                     .build();
+    } catch (IOException e) {
+      // Database error
+      ServiceError errMsg = new ServiceError(
+          Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Error finishing trackers, contact admin if this problem persists");
+      return Response.status(Status.INTERNAL_SERVER_ERROR)
+                     .entity(errMsg)
+                     .build();
+    }
+  }
+
   @SuppressWarnings("Duplicates")
   @Path("/ref_sync_history")
   @GET
@@ -466,7 +841,7 @@ public class ESISyncTrackerWS {
           name = "maxresults",
           value = "Maximum number of results to return") int maxResults) {
     // Retrieve current logged in user. Must be an admin
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null || !user.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -491,6 +866,54 @@ public class ESISyncTrackerWS {
     }
   }
 
+  @Path("/ref_sync_history_stream")
+  @GET
+  @ApiOperation(
+      value = "Stream synchronization history for reference data",
+      notes = "Streams reference data synchronization history in descending order by sync start time.  Results are retrieved and written in pages so that large exports use constant memory.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "reference data sync history",
+              response = ESIRefEndpointSyncTracker.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated",
+              response = ServiceError.class),
+      })
+  public Response requestRefSyncHistoryStream(
+      @Context HttpServletRequest request,
+      @QueryParam("contid") @DefaultValue("-1") @ApiParam(
+          name = "contid",
+          defaultValue = "-1",
+          value = "Optional sync start time before which results will be returned") long contid,
+      @QueryParam("maxresults") @ApiParam(
+          name = "maxresults",
+          value = "Maximum number of results to return") int maxResults) {
+    // Retrieve current logged in user. Must be an admin
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
+    if (user == null || !user.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .entity(errMsg)
+                     .build();
+    }
+    // Set defaults
+    maxResults = OrbitalProperties.getNonzeroLimited(maxResults, (int) PersistentProperty
+        .getLongPropertyWithFallback(OrbitalProperties.getPropertyName(ESIRefEndpointSyncTracker.class, "maxresults"), DEF_MAX_REF_SYNC_HISTORY));
+
+    // Stream history
+    ESISyncTrackerCursor start = ESISyncTrackerCursor.before(contid);
+    StreamingJsonArray<ESIRefEndpointSyncTracker> results = new StreamingJsonArray<>(
+        (last, max) -> ESISyncTrackerCursor.getRefHistory(last == null ? start : ESISyncTrackerCursor.after(last), max),
+        maxResults, StreamingJsonArray.DEF_PAGE_SIZE);
+    return Response.ok()
+                   .entity(results)
+                   .build();
+  }
+
   @Path("/ref_sync_started")
   @GET
   @ApiOperation(
@@ -515,7 +938,7 @@ public class ESISyncTrackerWS {
   public Response requestStartedRefSync(
       @Context HttpServletRequest request) {
     // Retrieve current logged in user
-    EveKitUserAccount user = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount user = UserCache.getCurrentUser(request);
     if (user == null || !user.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -567,7 +990,7 @@ public class ESISyncTrackerWS {
           required = true,
           value = "Ref Sync Tracker ID") long tid) {
     // Retrieve current logged in user
-    EveKitUserAccount admin = (EveKitUserAccount) AuthUtil.getCurrentUser(request);
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
     if (admin == null || !admin.isAdmin()) {
       ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
       return Response.status(Status.UNAUTHORIZED)
@@ -581,6 +1004,7 @@ public class ESISyncTrackerWS {
       tracker.setStatus(ESISyncState.WARNING);
       tracker.setDetail("Tracker forced to finish by administrator request.");
       ESIRefEndpointSyncTracker.finishTracker(tracker);
+      SyncTrackerEvents.forceFinished(tracker);
       return Response.ok()
                      .build();
     } catch (TrackerNotFoundException e) {
@@ -596,4 +1020,59 @@ public class ESISyncTrackerWS {
     }
   }
 
+  @Path("/tracker_events")
+  @GET
+  @Produces(SSE_MEDIA_TYPE)
+  @ApiOperation(
+      value = "Stream sync tracker state changes",
+      notes = "Streams sync tracker state changes as server-sent events.  Unless resuming, the stream starts with a \"snapshot\" event listing all started but unfinished trackers.  Subsequent \"start\", \"finish\" and \"force_finish\" events report tracker changes.  Streams end after a fixed lifetime.  Clients should reconnect with the Last-Event-ID header (or lastEventID parameter) set to the last event received.")
+  @ApiResponses(
+      value = {
+          @ApiResponse(
+              code = 200,
+              message = "tracker event stream",
+              response = SyncTrackerEvent.class,
+              responseContainer = "array"),
+          @ApiResponse(
+              code = 401,
+              message = "requesting user not authenticated or not an admin",
+              response = ServiceError.class),
+          @ApiResponse(
+              code = 503,
+              message = "too many streams open, retry later",
+              response = ServiceError.class),
+      })
+  public Response requestTrackerEvents(
+      @Context HttpServletRequest request,
+      @HeaderParam("Last-Event-ID") @DefaultValue("-1") @ApiParam(
+          name = "Last-Event-ID",
+          defaultValue = "-1",
+          value = "Optional ID of the last event received, set automatically by reconnecting clients") long lastEventHeader,
+      @QueryParam("lastEventID") @DefaultValue("-1") @ApiParam(
+          name = "lastEventID",
+          defaultValue = "-1",
+          value = "Optional ID of the last event received, used if the Last-Event-ID header is not set") long lastEventParam) {
+    // Retrieve current logged in user
+    EveKitUserAccount admin = UserCache.getCurrentUser(request);
+    if (admin == null || !admin.isAdmin()) {
+      ServiceError errMsg = new ServiceError(Status.UNAUTHORIZED.getStatusCode(), "User not logged in or is not an administrator");
+      return Response.status(Status.UNAUTHORIZED)
+                     .type(MediaType.APPLICATION_JSON)
+                     .entity(errMsg)
+                     .build();
+    }
+    if (!SyncTrackerEvents.hasCapacity()) {
+      ServiceError errMsg = new ServiceError(Status.SERVICE_UNAVAILABLE.getStatusCode(), "Too many event streams open, try again later");
+      return Response.status(Status.SERVICE_UNAVAILABLE)
+                     .type(MediaType.APPLICATION_JSON)
+                     .entity(errMsg)
+                     .build();
+    }
+    long resumeFrom = lastEventHeader >= 0 ? lastEventHeader : lastEventParam;
+    return Response.ok()
+                   .header("Cache-Control", "no-cache")
+                   .entity(SyncTrackerEvents.createStream(resumeFrom))
+                   .build();
+  }
+
 }
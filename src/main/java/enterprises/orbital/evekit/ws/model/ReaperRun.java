@@ -0,0 +1,54 @@
+package enterprises.orbital.evekit.ws.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ReaperRun {
+  private long start;
+  private long end;
+  private int reaped;
+  // Error message per endpoint which could not be reaped
+  private Map<String, String> errors = new LinkedHashMap<>();
+  private List<BulkFinishItem> trackers = new ArrayList<>();
+
+  public ReaperRun(long start) {
+    this.start = start;
+  }
+
+  public long getStart() {
+    return start;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  public int getReaped() {
+    return reaped;
+  }
+
+  public Map<String, String> getErrors() {
+    return errors;
+  }
+
+  public List<BulkFinishItem> getTrackers() {
+    return trackers;
+  }
+
+  public void setEnd(long end) {
+    this.end = end;
+  }
+
+  public void addError(String endpoint, String error) {
+    errors.put(endpoint, error);
+  }
+
+  public void addReaped(List<BulkFinishItem> batch, int maxRetained) {
+    for (BulkFinishItem next : batch) {
+      if (next.getResult() == BulkFinishItem.Result.FINISHED) reaped++;
+      if (trackers.size() < maxRetained) trackers.add(next);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.model.ESIRefSyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncEndpoint;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically force-finishes trackers which were started but never finished, usually because the sync worker
+ * running them died.  Such trackers block the next scheduled sync for their endpoint.  A tracker is reaped once it
+ * has been running longer than the threshold for its endpoint.  The threshold defaults to
+ * {@link #PROP_THRESHOLD} and may be overridden per endpoint by appending the endpoint name to that property.  The
+ * reaper only runs when enabled with {@link #PROP_ENABLED}.  A failure reaping one endpoint is recorded against that
+ * endpoint and does not stop the remaining endpoints from being reaped.
+ */
+public class StuckTrackerReaper {
+  private static final Logger log = Logger.getLogger(StuckTrackerReaper.class.getName());
+
+  // Set to true to enable the reaper.  The reaper is off by default.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_ENABLED = "enterprises.orbital.evekit.accountws.reaper.enabled";
+  @SuppressWarnings("WeakerAccess")
+  public static final boolean DEF_ENABLED = false;
+
+  // Interval between reaper runs
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_INTERVAL = "enterprises.orbital.evekit.accountws.reaper.interval";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_INTERVAL = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+  // Time after which a started tracker is considered stuck
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_THRESHOLD = "enterprises.orbital.evekit.accountws.reaper.threshold";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_THRESHOLD = TimeUnit.MILLISECONDS.convert(2, TimeUnit.HOURS);
+
+  // Number of trackers reaped per transaction
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_BATCH_SIZE = "enterprises.orbital.evekit.accountws.reaper.batchSize";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_BATCH_SIZE = 100;
+
+  private static final String REAP_DETAIL = "Tracker forced to finish after exceeding the stuck tracker threshold.";
+  // Number of recent runs, and reaped trackers per run, retained for reporting
+  private static final int MAX_RUNS = 20;
+  private static final int MAX_RUN_TRACKERS = 1000;
+
+  private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "stuck-tracker-reaper");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Guarded by the class lock
+  private static boolean started = false;
+  private static final Deque<ReaperRun> runs = new ArrayDeque<>();
+
+  /**
+   * Start the reaper if it is enabled and not already running.
+   */
+  public static synchronized void start() {
+    if (started || !OrbitalProperties.getBooleanGlobalProperty(PROP_ENABLED, DEF_ENABLED)) return;
+    started = true;
+    long interval = OrbitalProperties.getLongGlobalProperty(PROP_INTERVAL, DEF_INTERVAL);
+    scheduler.scheduleWithFixedDelay(StuckTrackerReaper::run, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Retrieve recent reaper runs, most recent first.
+   *
+   * @return recent reaper runs
+   */
+  public static synchronized List<ReaperRun> getRecentRuns() {
+    return new ArrayList<>(runs);
+  }
+
+  static long getThreshold(String endpoint) {
+    long threshold = OrbitalProperties.getLongGlobalProperty(PROP_THRESHOLD, DEF_THRESHOLD);
+    return OrbitalProperties.getLongGlobalProperty(PROP_THRESHOLD + "." + endpoint, threshold);
+  }
+
+  private static void run() {
+    long now = OrbitalProperties.getCurrentTime();
+    int batchSize = (int) OrbitalProperties.getLongGlobalProperty(PROP_BATCH_SIZE, DEF_BATCH_SIZE);
+    ReaperRun run = new ReaperRun(now);
+    for (ESISyncEndpoint endpoint : ESISyncEndpoint.values()) {
+      long before = now - getThreshold(endpoint.name());
+      long after = Long.MIN_VALUE;
+      List<BulkFinishItem> batch;
+      try {
+        do {
+          batch = BulkTrackerFinisher.finishMatchingTrackers(endpoint, before, after, batchSize, REAP_DETAIL);
+          if (!batch.isEmpty()) after = batch.get(batch.size() - 1)
+                                             .getTid();
+          run.addReaped(batch, MAX_RUN_TRACKERS);
+          if (BulkTrackerFinisher.hasFailed(batch)) {
+            run.addError(endpoint.name(), "Failed to finish a batch of stuck trackers");
+            break;
+          }
+        } while (batch.size() == batchSize);
+      } catch (IOException | RuntimeException e) {
+        log.log(Level.WARNING, "error reaping stuck trackers for " + endpoint, e);
+        run.addError(endpoint.name(), String.valueOf(e.getMessage()));
+      }
+    }
+    for (ESIRefSyncEndpoint endpoint : ESIRefSyncEndpoint.values()) {
+      long before = now - getThreshold(endpoint.name());
+      long after = Long.MIN_VALUE;
+      List<BulkFinishItem> batch;
+      try {
+        do {
+          batch = BulkTrackerFinisher.finishMatchingRefTrackers(endpoint, before, after, batchSize, REAP_DETAIL);
+          if (!batch.isEmpty()) after = batch.get(batch.size() - 1)
+                                             .getTid();
+          run.addReaped(batch, MAX_RUN_TRACKERS);
+          if (BulkTrackerFinisher.hasFailed(batch)) {
+            run.addError(endpoint.name(), "Failed to finish a batch of stuck ref trackers");
+            break;
+          }
+        } while (batch.size() == batchSize);
+      } catch (IOException | RuntimeException e) {
+        log.log(Level.WARNING, "error reaping stuck ref trackers for " + endpoint, e);
+        run.addError(endpoint.name(), String.valueOf(e.getMessage()));
+      }
+    }
+    run.setEnd(OrbitalProperties.getCurrentTime());
+    if (run.getReaped() > 0) log.info("Reaped " + run.getReaped() + " stuck trackers");
+    synchronized (StuckTrackerReaper.class) {
+      runs.addFirst(run);
+      while (runs.size() > MAX_RUNS) runs.removeLast();
+    }
+  }
+
+}
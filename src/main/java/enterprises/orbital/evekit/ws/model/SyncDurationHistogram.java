@@ -0,0 +1,106 @@
+package enterprises.orbital.evekit.ws.model;
+
+/**
+ * Fixed precision, mergeable histogram of sync durations in milliseconds.  Values are recorded into log-linear
+ * buckets in the style of HDR histograms: values below 32 are recorded exactly, and each larger power of two range
+ * is split into 16 linear sub-buckets, bounding relative error at about 6%.  Only the range of buckets actually
+ * used is allocated, so histograms for endpoints with tightly clustered durations stay small.  The maximum value
+ * is tracked exactly.
+ */
+public class SyncDurationHistogram {
+  // Values are clamped to this maximum (about 795 days)
+  private static final long MAX_VALUE = (1L << 36) - 1;
+  private static final int SUB_BUCKET_COUNT = 32;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+  private static final int SUB_BUCKET_HALF_BITS = Integer.numberOfTrailingZeros(SUB_BUCKET_HALF);
+
+  // Counts for bucket indices offset through offset + counts.length - 1
+  private int offset;
+  private long[] counts;
+  private long total;
+  private long max;
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_HALF_BITS;
+    int subBucket = (int) (value >>> shift);
+    return shift * SUB_BUCKET_HALF + subBucket;
+  }
+
+  static long highestValueAt(int index) {
+    if (index < SUB_BUCKET_COUNT) return index;
+    int shift = index / SUB_BUCKET_HALF - 1;
+    long subBucket = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private void ensureRange(int low, int high) {
+    if (counts == null) {
+      offset = low;
+      counts = new long[high - low + 1];
+      return;
+    }
+    int newOffset = Math.min(offset, low);
+    int newEnd = Math.max(offset + counts.length - 1, high);
+    if (newOffset == offset && newEnd == offset + counts.length - 1) return;
+    long[] resized = new long[newEnd - newOffset + 1];
+    System.arraycopy(counts, 0, resized, offset - newOffset, counts.length);
+    counts = resized;
+    offset = newOffset;
+  }
+
+  /**
+   * Record a duration.  Negative values are ignored.
+   *
+   * @param value duration in milliseconds
+   */
+  public void record(long value) {
+    if (value < 0) return;
+    value = Math.min(value, MAX_VALUE);
+    int index = indexOf(value);
+    ensureRange(index, index);
+    counts[index - offset]++;
+    total++;
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add all values recorded in another histogram to this histogram.
+   *
+   * @param other histogram to merge
+   */
+  public void merge(SyncDurationHistogram other) {
+    if (other.counts == null) return;
+    ensureRange(other.offset, other.offset + other.counts.length - 1);
+    for (int i = 0; i < other.counts.length; i++) counts[other.offset - offset + i] += other.counts[i];
+    total += other.total;
+    max = Math.max(max, other.max);
+  }
+
+  public long getTotalCount() {
+    return total;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Return the value at the given percentile.  The result is the highest value equivalent to the bucket containing
+   * the percentile, but never more than the exact maximum.
+   *
+   * @param percentile percentile in the range (0, 100]
+   * @return value at the percentile, or 0 if the histogram is empty
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (total == 0) return 0;
+    long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) return Math.min(highestValueAt(i + offset), max);
+    }
+    return max;
+  }
+}
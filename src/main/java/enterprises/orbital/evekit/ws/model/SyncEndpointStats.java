@@ -1,11 +1,17 @@
 package enterprises.orbital.evekit.ws.model;
 
 import enterprises.orbital.evekit.model.ESISyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncState;
+
+import java.util.EnumMap;
+import java.util.Map;
 
 public class SyncEndpointStats {
   private ESISyncEndpoint endpoint;
   private int attempts;
   private int failures;
+  private Map<ESISyncState, Integer> statusCounts = new EnumMap<>(ESISyncState.class);
+  private SyncDurationHistogram durations = new SyncDurationHistogram();
 
   public SyncEndpointStats(ESISyncEndpoint endpoint, int attempts, int failures) {
     this.endpoint = endpoint;
@@ -25,6 +31,26 @@ public class SyncEndpointStats {
     return failures;
   }
 
+  public Map<ESISyncState, Integer> getStatusCounts() {
+    return statusCounts;
+  }
+
+  public long getDurationP50() {
+    return durations.getValueAtPercentile(50);
+  }
+
+  public long getDurationP90() {
+    return durations.getValueAtPercentile(90);
+  }
+
+  public long getDurationP99() {
+    return durations.getValueAtPercentile(99);
+  }
+
+  public long getDurationMax() {
+    return durations.getMax();
+  }
+
   public void incrementAttempts() {
     attempts++;
   }
@@ -32,4 +58,20 @@ public class SyncEndpointStats {
   public void incrementFailures() {
     failures++;
   }
+
+  public void addAttempts(int count) {
+    attempts += count;
+  }
+
+  public void addFailures(int count) {
+    failures += count;
+  }
+
+  public void addStatusCount(ESISyncState status, int count) {
+    statusCounts.merge(status, count, Integer::sum);
+  }
+
+  public void addDurations(SyncDurationHistogram histogram) {
+    durations.merge(histogram);
+  }
 }
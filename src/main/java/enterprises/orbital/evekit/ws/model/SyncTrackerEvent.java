@@ -0,0 +1,66 @@
+package enterprises.orbital.evekit.ws.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESIRefEndpointSyncTracker;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(description = "Sync tracker state change event")
+public class SyncTrackerEvent {
+
+  public enum EventType {
+    START,
+    FINISH,
+    FORCE_FINISH
+  }
+
+  @ApiModelProperty(value = "Event ID, increasing in the order events were published")
+  @JsonProperty("eventID")
+  private final long eventID;
+
+  @ApiModelProperty(value = "Event type")
+  @JsonProperty("type")
+  private final EventType type;
+
+  @ApiModelProperty(value = "Time when the change was observed")
+  @JsonProperty("time")
+  private final long time;
+
+  @ApiModelProperty(value = "Changed ESI tracker, or null if a ref tracker changed")
+  @JsonProperty("tracker")
+  private final ESIEndpointSyncTracker tracker;
+
+  @ApiModelProperty(value = "Changed ref tracker, or null if an ESI tracker changed")
+  @JsonProperty("refTracker")
+  private final ESIRefEndpointSyncTracker refTracker;
+
+  public SyncTrackerEvent(long eventID, EventType type, long time, ESIEndpointSyncTracker tracker,
+                          ESIRefEndpointSyncTracker refTracker) {
+    this.eventID = eventID;
+    this.type = type;
+    this.time = time;
+    this.tracker = tracker;
+    this.refTracker = refTracker;
+  }
+
+  public long getEventID() {
+    return eventID;
+  }
+
+  public EventType getType() {
+    return type;
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  public ESIEndpointSyncTracker getTracker() {
+    return tracker;
+  }
+
+  public ESIRefEndpointSyncTracker getRefTracker() {
+    return refTracker;
+  }
+}
@@ -0,0 +1,345 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESIRefEndpointSyncTracker;
+import enterprises.orbital.evekit.model.TrackerNotFoundException;
+import enterprises.orbital.evekit.ws.common.JsonMapper;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes sync tracker state changes as server-sent events.  Trackers are started and finished by sync workers
+ * outside this module, so while at least one stream is open a single background poller diffs the set of started
+ * but unfinished trackers and publishes start and finish events.  Trackers force-finished through this module are
+ * published directly.  Recent events are kept in a bounded buffer so that clients can resume from the last event
+ * they received.  Clients which resume from an event no longer buffered receive a fresh snapshot instead.
+ */
+public class SyncTrackerEvents {
+  private static final Logger log = Logger.getLogger(SyncTrackerEvents.class.getName());
+
+  // Interval between polls for tracker changes while streams are open
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_POLL_INTERVAL = "enterprises.orbital.evekit.accountws.trackerEvents.pollInterval";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_POLL_INTERVAL = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+  // Number of recent events retained for resuming clients
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_EVENT_BUFFER = "enterprises.orbital.evekit.accountws.trackerEvents.buffer";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_EVENT_BUFFER = 1000;
+
+  // Maximum number of concurrently open streams.  Each open stream holds a request thread.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_MAX_STREAMS = "enterprises.orbital.evekit.accountws.trackerEvents.maxStreams";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_MAX_STREAMS = 10;
+
+  // Maximum lifetime of a single stream.  Clients reconnect with Last-Event-ID when a stream ends.
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_STREAM_LIFETIME = "enterprises.orbital.evekit.accountws.trackerEvents.streamLifetime";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_STREAM_LIFETIME = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+
+  private static final long HEARTBEAT_INTERVAL = TimeUnit.MILLISECONDS.convert(15, TimeUnit.SECONDS);
+  private static final long RECONNECT_DELAY = TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS);
+
+  private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "sync-tracker-event-poller");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // Serializes polls, so the stream baseline and the scheduled poller never diff against the same previous state.
+  // Always acquired before the class lock.
+  private static final Object pollLock = new Object();
+
+  // All remaining state is guarded by the class lock
+  private static final Deque<SyncTrackerEvent> events = new ArrayDeque<>();
+  private static long lastEventID = 0;
+  // Events at or before this ID were published before the current baseline and can not be replayed
+  private static long baselineEventID = -1;
+  private static final Map<Long, ESIEndpointSyncTracker> started = new HashMap<>();
+  private static final Map<Long, ESIRefEndpointSyncTracker> startedRef = new HashMap<>();
+  private static int streams = 0;
+  private static ScheduledFuture<?> pollTask;
+
+  /**
+   * Snapshot of all started but unfinished trackers, consistent with a given event ID.
+   */
+  public static class Snapshot {
+    @SuppressWarnings("unused")
+    public final long eventID;
+    @SuppressWarnings("unused")
+    public final List<ESIEndpointSyncTracker> trackers;
+    @SuppressWarnings("unused")
+    public final List<ESIRefEndpointSyncTracker> refTrackers;
+
+    Snapshot(long eventID, List<ESIEndpointSyncTracker> trackers, List<ESIRefEndpointSyncTracker> refTrackers) {
+      this.eventID = eventID;
+      this.trackers = trackers;
+      this.refTrackers = refTrackers;
+    }
+  }
+
+  private static synchronized void publish(SyncTrackerEvent.EventType type, ESIEndpointSyncTracker tracker,
+                                           ESIRefEndpointSyncTracker refTracker) {
+    if (tracker != null) UnfinishedTrackerCache.invalidate(tracker.getAccount()
+                                                                  .getAid());
+    events.addLast(new SyncTrackerEvent(++lastEventID, type, OrbitalProperties.getCurrentTime(), tracker, refTracker));
+    int limit = (int) OrbitalProperties.getLongGlobalProperty(PROP_EVENT_BUFFER, DEF_EVENT_BUFFER);
+    while (events.size() > limit) events.removeFirst();
+    SyncTrackerEvents.class.notifyAll();
+  }
+
+  /**
+   * Publish a force-finish event for an ESI tracker finished through this module.  Holds the poll lock so that a
+   * poll which loaded trackers before the force-finish can not report the tracker as started again.
+   *
+   * @param tracker the finished tracker
+   */
+  public static void forceFinished(ESIEndpointSyncTracker tracker) {
+    synchronized (pollLock) {
+      synchronized (SyncTrackerEvents.class) {
+        started.remove(tracker.getTid());
+      }
+      publish(SyncTrackerEvent.EventType.FORCE_FINISH, tracker, null);
+    }
+  }
+
+  /**
+   * Publish a force-finish event for a ref tracker finished through this module.  Holds the poll lock so that a
+   * poll which loaded trackers before the force-finish can not report the tracker as started again.
+   *
+   * @param tracker the finished tracker
+   */
+  public static void forceFinished(ESIRefEndpointSyncTracker tracker) {
+    synchronized (pollLock) {
+      synchronized (SyncTrackerEvents.class) {
+        startedRef.remove(tracker.getTid());
+      }
+      publish(SyncTrackerEvent.EventType.FORCE_FINISH, null, tracker);
+    }
+  }
+
+  /**
+   * Load the current set of started trackers if no poll has done so since streams were last opened.
+   *
+   * @throws IOException on any error retrieving trackers
+   */
+  private static void ensureBaseline() throws IOException {
+    synchronized (pollLock) {
+      synchronized (SyncTrackerEvents.class) {
+        if (baselineEventID >= 0) return;
+      }
+      pollLocked();
+    }
+  }
+
+  /**
+   * Compare started trackers against the last poll and publish changes.  The first poll after streams are opened
+   * only records a baseline.  Polls are serialized on the poll lock, so trackers are loaded and diffed by one
+   * poll at a time.
+   *
+   * @throws IOException on any error retrieving trackers
+   */
+  private static void poll() throws IOException {
+    synchronized (pollLock) {
+      pollLocked();
+    }
+  }
+
+  private static void pollLocked() throws IOException {
+    List<ESIEndpointSyncTracker> current = ESIEndpointSyncTracker.getAllStartedUnfinishedTrackers();
+    List<ESIRefEndpointSyncTracker> currentRef = ESIRefEndpointSyncTracker.getAllStartedUnfinishedTrackers();
+    List<ESIEndpointSyncTracker> added = new ArrayList<>();
+    List<ESIEndpointSyncTracker> removed = new ArrayList<>();
+    List<ESIRefEndpointSyncTracker> addedRef = new ArrayList<>();
+    List<ESIRefEndpointSyncTracker> removedRef = new ArrayList<>();
+
+    synchronized (SyncTrackerEvents.class) {
+      boolean baseline = baselineEventID < 0;
+      Map<Long, ESIEndpointSyncTracker> previous = new HashMap<>(started);
+      Map<Long, ESIRefEndpointSyncTracker> previousRef = new HashMap<>(startedRef);
+      started.clear();
+      startedRef.clear();
+      for (ESIEndpointSyncTracker next : current) {
+        started.put(next.getTid(), next);
+        if (previous.remove(next.getTid()) == null) added.add(next);
+      }
+      for (ESIRefEndpointSyncTracker next : currentRef) {
+        startedRef.put(next.getTid(), next);
+        if (previousRef.remove(next.getTid()) == null) addedRef.add(next);
+      }
+      if (baseline) {
+        baselineEventID = lastEventID;
+        SyncTrackerEvents.class.notifyAll();
+        return;
+      }
+      removed.addAll(previous.values());
+      removedRef.addAll(previousRef.values());
+    }
+
+    for (ESIEndpointSyncTracker next : added) publish(SyncTrackerEvent.EventType.START, next, null);
+    for (ESIRefEndpointSyncTracker next : addedRef) publish(SyncTrackerEvent.EventType.START, null, next);
+
+    // Retrieve the final state of finished trackers, falling back to the last state we saw
+    for (ESIEndpointSyncTracker next : removed) {
+      try {
+        next = ESIEndpointSyncTracker.get(next.getTid());
+      } catch (TrackerNotFoundException e) {
+        // Tracker was removed, report last known state
+      }
+      publish(SyncTrackerEvent.EventType.FINISH, next, null);
+    }
+    for (ESIRefEndpointSyncTracker next : removedRef) {
+      try {
+        next = ESIRefEndpointSyncTracker.get(next.getTid());
+      } catch (TrackerNotFoundException e) {
+        // Tracker was removed, report last known state
+      }
+      publish(SyncTrackerEvent.EventType.FINISH, null, next);
+    }
+  }
+
+  private static synchronized boolean openStream() {
+    if (streams >= (int) OrbitalProperties.getLongGlobalProperty(PROP_MAX_STREAMS, DEF_MAX_STREAMS)) return false;
+    streams++;
+    if (pollTask == null) {
+      long interval = OrbitalProperties.getLongGlobalProperty(PROP_POLL_INTERVAL, DEF_POLL_INTERVAL);
+      pollTask = poller.scheduleWithFixedDelay(() -> {
+        try {
+          poll();
+        } catch (Exception e) {
+          log.log(Level.WARNING, "error polling for tracker changes", e);
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    return true;
+  }
+
+  private static synchronized void closeStream() {
+    streams--;
+    if (streams == 0 && pollTask != null) {
+      // Stop polling.  Events published from here on can't be diffed, so the next stream starts a new baseline.
+      pollTask.cancel(false);
+      pollTask = null;
+      baselineEventID = -1;
+    }
+  }
+
+  /**
+   * Check whether a new stream can be opened.
+   *
+   * @return true if fewer than the maximum number of streams are open
+   */
+  public static synchronized boolean hasCapacity() {
+    return streams < (int) OrbitalProperties.getLongGlobalProperty(PROP_MAX_STREAMS, DEF_MAX_STREAMS);
+  }
+
+  private static synchronized Snapshot getSnapshot() {
+    return new Snapshot(lastEventID, new ArrayList<>(started.values()), new ArrayList<>(startedRef.values()));
+  }
+
+  /**
+   * Wait for events published after the given event ID.
+   *
+   * @param after   return events with IDs greater than this ID
+   * @param timeout maximum time to wait in milliseconds
+   * @return events published after the given ID, which may be empty if the wait timed out, or null if some of
+   * those events are no longer available and the caller should start again from a snapshot
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static synchronized List<SyncTrackerEvent> awaitEvents(long after, long timeout) throws InterruptedException {
+    if (lastEventID <= after) SyncTrackerEvents.class.wait(timeout);
+    if (!canResume(after)) return null;
+    List<SyncTrackerEvent> result = new ArrayList<>();
+    for (SyncTrackerEvent next : events) {
+      if (next.getEventID() > after) result.add(next);
+    }
+    return result;
+  }
+
+  private static synchronized boolean canResume(long after) {
+    if (baselineEventID < 0 || after < baselineEventID || after > lastEventID) return false;
+    return after == lastEventID || (!events.isEmpty() && events.peekFirst()
+                                                               .getEventID() <= after + 1);
+  }
+
+  private static void writeEvent(Writer out, long id, String event, Object data) throws IOException {
+    out.write("id: " + id + "\n");
+    out.write("event: " + event + "\n");
+    out.write("data: " + JsonMapper.get()
+                                   .writeValueAsString(data) + "\n\n");
+  }
+
+  /**
+   * Create a stream of tracker events.  The stream starts with a "snapshot" event listing all started but
+   * unfinished trackers unless the client can resume from the given event ID.  Each subsequent change is sent as an
+   * event named after its type.  The stream ends after a fixed lifetime, after which clients are expected to
+   * reconnect with the ID of the last event they received.
+   *
+   * @param resumeFrom ID of the last event received by the client, or -1 to start with a snapshot
+   * @return stream of server-sent events
+   */
+  public static StreamingOutput createStream(long resumeFrom) {
+    return (OutputStream output) -> {
+      Writer out = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+      out.write("retry: " + RECONNECT_DELAY + "\n\n");
+      if (!openStream()) {
+        out.write(": too many open streams\n\n");
+        out.flush();
+        return;
+      }
+      try {
+        ensureBaseline();
+        long last = resumeFrom;
+        if (last < 0 || !canResume(last)) {
+          Snapshot snapshot = getSnapshot();
+          writeEvent(out, snapshot.eventID, "snapshot", snapshot);
+          last = snapshot.eventID;
+        }
+        out.flush();
+        long lifetime = OrbitalProperties.getLongGlobalProperty(PROP_STREAM_LIFETIME, DEF_STREAM_LIFETIME);
+        long deadline = OrbitalProperties.getCurrentTime() + lifetime;
+        while (OrbitalProperties.getCurrentTime() < deadline) {
+          List<SyncTrackerEvent> next = awaitEvents(last, HEARTBEAT_INTERVAL);
+          if (next == null) {
+            Snapshot snapshot = getSnapshot();
+            writeEvent(out, snapshot.eventID, "snapshot", snapshot);
+            last = snapshot.eventID;
+          } else if (next.isEmpty()) {
+            out.write(": heartbeat\n\n");
+          } else {
+            for (SyncTrackerEvent event : next) {
+              writeEvent(out, event.getEventID(), event.getType()
+                                                       .name()
+                                                       .toLowerCase(), event);
+              last = event.getEventID();
+            }
+          }
+          out.flush();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread()
+              .interrupt();
+      } finally {
+        closeStream();
+      }
+    };
+  }
+
+}
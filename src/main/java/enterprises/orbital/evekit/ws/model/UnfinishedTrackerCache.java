@@ -0,0 +1,142 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.base.OrbitalProperties;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.ws.common.CacheStats;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, least-recently-used cache of unfinished trackers by sync account.  Trackers are created and finished by
+ * sync workers outside this module, so entries also expire after a short time.  Entries are invalidated immediately
+ * when trackers are finished through this module or when tracker changes are observed by {@link SyncTrackerEvents}.
+ */
+public class UnfinishedTrackerCache {
+
+  // Maximum number of accounts with cached trackers
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_CAPACITY = "enterprises.orbital.evekit.accountws.trackerCache.capacity";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_CAPACITY = 5000;
+
+  // Time after which cached trackers are reloaded
+  @SuppressWarnings("WeakerAccess")
+  public static final String PROP_TTL = "enterprises.orbital.evekit.accountws.trackerCache.ttl";
+  @SuppressWarnings("WeakerAccess")
+  public static final long DEF_TTL = TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS);
+
+  private static final UnfinishedTrackerCache instance = new UnfinishedTrackerCache(
+      (int) OrbitalProperties.getLongGlobalProperty(PROP_CAPACITY, DEF_CAPACITY),
+      OrbitalProperties.getLongGlobalProperty(PROP_TTL, DEF_TTL));
+
+  /**
+   * Loads unfinished trackers on a cache miss.
+   */
+  interface Loader {
+    List<ESIEndpointSyncTracker> load() throws IOException;
+  }
+
+  private static class Entry {
+    final List<ESIEndpointSyncTracker> trackers;
+    final long loaded;
+
+    Entry(List<ESIEndpointSyncTracker> trackers, long loaded) {
+      this.trackers = trackers;
+      this.loaded = loaded;
+    }
+  }
+
+  private final int capacity;
+  private final long ttl;
+  // All remaining state is guarded by this
+  private final LinkedHashMap<Long, Entry> entries;
+  // Incremented on every invalidation so that loads racing an invalidation are not cached
+  private long generation;
+  private long hits;
+  private long misses;
+  private long expirations;
+  private long evictions;
+  private long invalidations;
+
+  UnfinishedTrackerCache(int capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+        if (size() <= UnfinishedTrackerCache.this.capacity) return false;
+        evictions++;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Retrieve unfinished trackers for an account, loading them if they are not cached or have expired.
+   *
+   * @param account account for which trackers will be retrieved
+   * @return unfinished trackers for the account
+   * @throws IOException on any error loading trackers
+   */
+  public static List<ESIEndpointSyncTracker> getUnfinishedTrackers(SynchronizedEveAccount account) throws IOException {
+    return instance.get(account.getAid(), () -> ESIEndpointSyncTracker.getAllUnfinishedTrackers(account));
+  }
+
+  /**
+   * Discard cached trackers for an account.
+   *
+   * @param aid ID of the account for which trackers have changed
+   */
+  public static void invalidate(long aid) {
+    instance.remove(aid);
+  }
+
+  /**
+   * Retrieve cache metrics.
+   *
+   * @return current cache metrics
+   */
+  public static CacheStats getStats() {
+    return instance.stats();
+  }
+
+  List<ESIEndpointSyncTracker> get(long aid, Loader loader) throws IOException {
+    long start;
+    synchronized (this) {
+      Entry cached = entries.get(aid);
+      if (cached != null) {
+        if (OrbitalProperties.getCurrentTime() - cached.loaded < ttl) {
+          hits++;
+          return cached.trackers;
+        }
+        entries.remove(aid);
+        expirations++;
+      }
+      misses++;
+      start = generation;
+    }
+    // Load outside the lock so that slow queries don't block other accounts
+    long loaded = OrbitalProperties.getCurrentTime();
+    List<ESIEndpointSyncTracker> trackers = Collections.unmodifiableList(loader.load());
+    synchronized (this) {
+      if (generation == start) entries.put(aid, new Entry(trackers, loaded));
+    }
+    return trackers;
+  }
+
+  synchronized void remove(long aid) {
+    generation++;
+    if (entries.remove(aid) != null) invalidations++;
+  }
+
+  synchronized CacheStats stats() {
+    return new CacheStats(capacity, entries.size(), hits, misses, expirations, evictions, invalidations);
+  }
+
+}
@@ -0,0 +1,106 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AccessKeyCacheTest {
+
+  // The cache is static, so each test uses its own key IDs
+  private static final AtomicLong KIDS = new AtomicLong(1000);
+
+  // Keys which generate derived fields report generated values, other keys report whatever the cache set
+  private static SynchronizedAccountAccessKey mockKey(long kid, String name, byte[] mask, boolean generates) {
+    SynchronizedAccountAccessKey key = generates ? EasyMock.createMock(SynchronizedAccountAccessKey.class) :
+        EasyMock.partialMockBuilder(SynchronizedAccountAccessKey.class)
+                .addMockedMethods("getKid", "getAccessKey", "getKeyName", "getExpiry", "getLimit", "getAccessMask")
+                .createMock();
+    EasyMock.expect(key.getKid())
+            .andReturn(kid)
+            .anyTimes();
+    EasyMock.expect(key.getAccessKey())
+            .andReturn(1234)
+            .anyTimes();
+    EasyMock.expect(key.getKeyName())
+            .andReturn(name)
+            .anyTimes();
+    EasyMock.expect(key.getExpiry())
+            .andReturn(0L)
+            .anyTimes();
+    EasyMock.expect(key.getLimit())
+            .andReturn(0L)
+            .anyTimes();
+    EasyMock.expect(key.getAccessMask())
+            .andReturn(mask)
+            .anyTimes();
+    if (generates) {
+      key.generateMaskValue();
+      key.generateMaskValueString();
+      key.generateCredential();
+      EasyMock.expect(key.getMaskValue())
+              .andReturn(BigInteger.valueOf(kid))
+              .anyTimes();
+      EasyMock.expect(key.getMaskValueString())
+              .andReturn("mask-" + name)
+              .anyTimes();
+      EasyMock.expect(key.getCredential())
+              .andReturn("credential-" + name)
+              .anyTimes();
+    }
+    EasyMock.replay(key);
+    return key;
+  }
+
+  @Test
+  public void testSameVersionReused() {
+    long kid = KIDS.incrementAndGet();
+    SynchronizedAccountAccessKey first = mockKey(kid, "key", new byte[]{1, 2, 3}, true);
+    SynchronizedAccountAccessKey second = mockKey(kid, "key", new byte[]{1, 2, 3}, false);
+    Assert.assertSame(first, AccessKeyCache.withDerivedFields(first));
+    Assert.assertSame(second, AccessKeyCache.withDerivedFields(second));
+    Assert.assertEquals(BigInteger.valueOf(kid), second.getMaskValue());
+    Assert.assertEquals("mask-key", second.getMaskValueString());
+    Assert.assertEquals("credential-key", second.getCredential());
+    EasyMock.verify(first, second);
+  }
+
+  @Test
+  public void testChangedVersionRegenerated() {
+    long kid = KIDS.incrementAndGet();
+    SynchronizedAccountAccessKey first = mockKey(kid, "key", new byte[]{1, 2, 3}, true);
+    SynchronizedAccountAccessKey renamed = mockKey(kid, "renamed", new byte[]{1, 2, 3}, true);
+    Assert.assertSame(first, AccessKeyCache.withDerivedFields(first));
+    Assert.assertSame(renamed, AccessKeyCache.withDerivedFields(renamed));
+    EasyMock.verify(first, renamed);
+  }
+
+  @Test
+  public void testHashCollisionRegenerated() {
+    // These masks have the same hash code, so only a field comparison tells them apart
+    byte[] mask = new byte[]{0, 31};
+    byte[] remasked = new byte[]{1, 0};
+    Assert.assertEquals(java.util.Arrays.hashCode(mask), java.util.Arrays.hashCode(remasked));
+    long kid = KIDS.incrementAndGet();
+    SynchronizedAccountAccessKey first = mockKey(kid, "key", mask, true);
+    SynchronizedAccountAccessKey second = mockKey(kid, "key", remasked, true);
+    Assert.assertSame(first, AccessKeyCache.withDerivedFields(first));
+    Assert.assertSame(second, AccessKeyCache.withDerivedFields(second));
+    EasyMock.verify(first, second);
+  }
+
+  @Test
+  public void testInvalidate() {
+    long kid = KIDS.incrementAndGet();
+    SynchronizedAccountAccessKey first = mockKey(kid, "key", new byte[]{1, 2, 3}, true);
+    SynchronizedAccountAccessKey second = mockKey(kid, "key", new byte[]{1, 2, 3}, true);
+    AccessKeyCache.withDerivedFields(first);
+    AccessKeyCache.invalidate(kid);
+    Assert.assertSame(second, AccessKeyCache.withDerivedFields(second));
+    EasyMock.verify(first, second);
+  }
+
+}
@@ -0,0 +1,77 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.PersistentProperty;
+import enterprises.orbital.evekit.TestBase;
+import enterprises.orbital.evekit.account.SynchronizedAccountAccessKey;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessKeyUsageTest extends TestBase {
+
+  private SynchronizedEveAccount account;
+  private SynchronizedAccountAccessKey key;
+
+  @Override
+  @Before
+  public void setup() throws Exception {
+    super.setup();
+    account = SynchronizedEveAccount.createSynchronizedEveAccount(regularUser, "usage", true);
+    key = SynchronizedAccountAccessKey.createKey(account, "usage", -1, -1, new byte[]{0});
+  }
+
+  private long stored(SynchronizedAccountAccessKey key) {
+    return PersistentProperty.getLongPropertyWithFallback(account, AccessKeyUsage.USAGE_PROPERTY_PREFIX + key.getKid(), 0);
+  }
+
+  @Test
+  public void testFlush() {
+    AccessKeyUsage.record(key);
+    AccessKeyUsage.record(key);
+    AccessKeyUsage.flush();
+    Assert.assertEquals(0, AccessKeyUsage.getPending(key.getKid()));
+    Assert.assertEquals(2, stored(key));
+    AccessKeyUsage.record(key);
+    AccessKeyUsage.flush();
+    Assert.assertEquals(3, stored(key));
+  }
+
+  @Test
+  public void testFailedFlushRestored() {
+    // Flushing usage for this account fails, so the count must be kept for the next flush
+    SynchronizedEveAccount broken = EasyMock.createMock(SynchronizedEveAccount.class);
+    EasyMock.expect(broken.getAid())
+            .andThrow(new IllegalStateException("flush failure"))
+            .anyTimes();
+    EasyMock.expect(broken.getPeristentPropertyKey())
+            .andReturn("broken")
+            .anyTimes();
+    SynchronizedAccountAccessKey brokenKey = EasyMock.createMock(SynchronizedAccountAccessKey.class);
+    EasyMock.expect(brokenKey.getKid())
+            .andReturn(key.getKid() + 1000)
+            .anyTimes();
+    EasyMock.expect(brokenKey.getSyncAccount())
+            .andReturn(broken)
+            .anyTimes();
+    EasyMock.replay(broken, brokenKey);
+    AccessKeyUsage.record(brokenKey);
+    AccessKeyUsage.record(brokenKey);
+    AccessKeyUsage.flush();
+    Assert.assertEquals(2, AccessKeyUsage.getPending(brokenKey.getKid()));
+    // Drop the count so later flushes don't keep failing
+    AccessKeyUsage.forget(brokenKey);
+  }
+
+  @Test
+  public void testForgottenKeyNotRecorded() {
+    AccessKeyUsage.record(key);
+    AccessKeyUsage.forget(key);
+    AccessKeyUsage.record(key);
+    Assert.assertEquals(0, AccessKeyUsage.getPending(key.getKid()));
+    AccessKeyUsage.flush();
+    Assert.assertEquals(0, stored(key));
+  }
+
+}
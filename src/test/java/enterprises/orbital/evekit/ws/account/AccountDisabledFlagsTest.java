@@ -0,0 +1,56 @@
+package enterprises.orbital.evekit.ws.account;
+
+import enterprises.orbital.base.PersistentProperty;
+import enterprises.orbital.evekit.TestBase;
+import enterprises.orbital.evekit.account.EveKitUserAccountProvider;
+import enterprises.orbital.evekit.account.SynchronizedEveAccount;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+public class AccountDisabledFlagsTest extends TestBase {
+
+  private SynchronizedEveAccount first;
+  private SynchronizedEveAccount second;
+
+  @Override
+  @Before
+  public void setup() throws Exception {
+    super.setup();
+    first = SynchronizedEveAccount.createSynchronizedEveAccount(regularUser, "first", true);
+    second = SynchronizedEveAccount.createSynchronizedEveAccount(regularUser, "second", true);
+  }
+
+  private static boolean stored(SynchronizedEveAccount account) {
+    return PersistentProperty.getBooleanPropertyWithFallback(account, AccountDisabledFlags.DISABLED_PROPERTY, false);
+  }
+
+  @Test
+  public void testPropertyWriteRolledBack() {
+    try {
+      EveKitUserAccountProvider.getFactory()
+                               .runTransaction(() -> {
+                                 PersistentProperty.setProperty(first, AccountDisabledFlags.DISABLED_PROPERTY, "true");
+                                 throw new RuntimeException("rollback");
+                               });
+      Assert.fail("transaction should have failed");
+    } catch (Exception e) {
+      // expected
+    }
+    Assert.assertFalse(stored(first));
+  }
+
+  @Test
+  public void testSetDisabledOnlyChangesDifferentState() throws Exception {
+    PersistentProperty.setProperty(first, AccountDisabledFlags.DISABLED_PROPERTY, "true");
+    Set<Long> changed = AccountDisabledFlags.setDisabled(Arrays.asList(first, second), true);
+    Assert.assertEquals(Collections.singleton(second.getAid()), changed);
+    Assert.assertTrue(stored(first));
+    Assert.assertTrue(stored(second));
+  }
+
+}
@@ -0,0 +1,83 @@
+package enterprises.orbital.evekit.ws.account;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NoteQueryTest {
+
+  @Test
+  public void testNoCursor() {
+    NoteQuery cut = new NoteQuery(null, null);
+    Assert.assertEquals("", cut.keysetCondition(false, "nid"));
+    Assert.assertEquals("", cut.keysetCondition(true, "bid"));
+  }
+
+  @Test
+  public void testSameKind() {
+    NoteQuery cut = new NoteQuery(null, "1000:p:55");
+    Assert.assertEquals(" AND (c.noteTime < :beforeTime OR (c.noteTime = :beforeTime AND c.nid < :beforeID))",
+                        cut.keysetCondition(false, "nid"));
+  }
+
+  @Test
+  public void testAfterBroadcast() {
+    // Personal notes with the same time as the last broadcast have not been returned yet
+    NoteQuery cut = new NoteQuery(null, "1000:b:55");
+    Assert.assertEquals(" AND (c.noteTime < :beforeTime OR c.noteTime = :beforeTime)",
+                        cut.keysetCondition(false, "nid"));
+  }
+
+  @Test
+  public void testAfterPersonal() {
+    // Broadcasts with the same time as the last personal note have already been returned
+    NoteQuery cut = new NoteQuery(null, "1000:p:55");
+    Assert.assertEquals(" AND (c.noteTime < :beforeTime)", cut.keysetCondition(true, "bid"));
+  }
+
+  @Test
+  public void testCursorRoundTrip() {
+    UserNote last = new UserNote(-55, 1000, "content", false, false, true);
+    Assert.assertEquals("1000:b:55", NoteQuery.cursorAfter(last));
+    NoteQuery cut = new NoteQuery(null, NoteQuery.cursorAfter(last));
+    Assert.assertEquals(" AND (c.noteTime < :beforeTime OR (c.noteTime = :beforeTime AND c.bid < :beforeID))",
+                        cut.keysetCondition(true, "bid"));
+  }
+
+  @Test
+  public void testNewerWithoutCursor() {
+    NoteQuery cut = new NoteQuery(null, null);
+    Assert.assertEquals("", cut.newerCondition(false, "nid"));
+  }
+
+  @Test
+  public void testNewerSameKind() {
+    NoteQuery cut = new NoteQuery(null, "1000:b:55");
+    Assert.assertEquals(" AND (c.noteTime > :afterTime OR (c.noteTime = :afterTime AND c.bid > :afterID))",
+                        cut.newerCondition(true, "bid"));
+  }
+
+  @Test
+  public void testNewerAfterPersonal() {
+    // Broadcasts with the same time as the last personal note come after it
+    NoteQuery cut = new NoteQuery(null, "1000:p:55");
+    Assert.assertEquals(" AND (c.noteTime > :afterTime OR c.noteTime = :afterTime)", cut.newerCondition(true, "bid"));
+  }
+
+  @Test
+  public void testNewerAfterBroadcast() {
+    // Personal notes with the same time as the last broadcast came before it
+    NoteQuery cut = new NoteQuery(null, "1000:b:55");
+    Assert.assertEquals(" AND (c.noteTime > :afterTime)", cut.newerCondition(false, "nid"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedKind() {
+    new NoteQuery(null, "1000:x:55");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedNumber() {
+    new NoteQuery(null, "abc:p:55");
+  }
+
+}
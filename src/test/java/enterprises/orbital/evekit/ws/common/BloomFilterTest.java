@@ -0,0 +1,36 @@
+package enterprises.orbital.evekit.ws.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+  @Test
+  public void testNoFalseNegatives() {
+    BloomFilter filter = new BloomFilter(1000, 0.01);
+    for (long i = 0; i < 1000; i++) filter.add(i * 7919);
+    for (long i = 0; i < 1000; i++) Assert.assertTrue(filter.mightContain(i * 7919));
+    Assert.assertEquals(1000, filter.getCount());
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (long i = 0; i < 10000; i++) filter.add(i);
+    int falsePositives = 0;
+    for (long i = 10000; i < 110000; i++) if (filter.mightContain(i)) falsePositives++;
+    // Allow generous slack over the 1% target
+    Assert.assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+  }
+
+  @Test
+  public void testClear() {
+    BloomFilter filter = new BloomFilter(100, 0.01);
+    filter.add(42);
+    Assert.assertTrue(filter.mightContain(42));
+    filter.clear();
+    Assert.assertFalse(filter.mightContain(42));
+    Assert.assertEquals(0, filter.getCount());
+  }
+
+}
@@ -0,0 +1,64 @@
+package enterprises.orbital.evekit.ws.common;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ConditionalResponseTest {
+
+  @Test
+  public void testMatches() {
+    Assert.assertFalse(ConditionalResponse.matches(null, "abc"));
+    Assert.assertTrue(ConditionalResponse.matches("\"abc\"", "abc"));
+    Assert.assertTrue(ConditionalResponse.matches("W/\"abc\"", "abc"));
+    Assert.assertTrue(ConditionalResponse.matches("\"xyz\", \"abc\"", "abc"));
+    Assert.assertTrue(ConditionalResponse.matches("*", "abc"));
+    Assert.assertFalse(ConditionalResponse.matches("\"abcd\"", "abc"));
+    Assert.assertFalse(ConditionalResponse.matches("abc", "abc"));
+  }
+
+  @Test
+  public void testTagDependsOnContent() {
+    Assert.assertEquals(ConditionalResponse.computeTag(new byte[]{1, 2, 3}), ConditionalResponse.computeTag(new byte[]{1, 2, 3}));
+    Assert.assertNotEquals(ConditionalResponse.computeTag(new byte[]{1, 2, 3}), ConditionalResponse.computeTag(new byte[]{1, 2, 4}));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    Response first = ConditionalResponse.ok(null, Arrays.asList(1, 2, 3));
+    Assert.assertEquals(Response.Status.OK.getStatusCode(), first.getStatus());
+    String tag = first.getEntityTag()
+                      .getValue();
+
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getHeader(HttpHeaders.IF_NONE_MATCH))
+            .andReturn("\"" + tag + "\"");
+    EasyMock.replay(request);
+    Response second = ConditionalResponse.ok(request, Arrays.asList(1, 2, 3));
+    Assert.assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), second.getStatus());
+    Assert.assertNull(second.getEntity());
+    EasyMock.verify(request);
+  }
+
+  @Test
+  public void testModified() throws Exception {
+    String tag = ConditionalResponse.ok(null, Arrays.asList(1, 2, 3))
+                                    .getEntityTag()
+                                    .getValue();
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getHeader(HttpHeaders.IF_NONE_MATCH))
+            .andReturn("\"" + tag + "\"");
+    EasyMock.replay(request);
+    Response changed = ConditionalResponse.ok(request, Collections.singletonList(4));
+    Assert.assertEquals(Response.Status.OK.getStatusCode(), changed.getStatus());
+    Assert.assertNotEquals(tag, changed.getEntityTag()
+                                       .getValue());
+  }
+
+}
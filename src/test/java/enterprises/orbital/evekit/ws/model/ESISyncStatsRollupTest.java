@@ -0,0 +1,113 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.model.ESISyncEndpoint;
+import enterprises.orbital.evekit.model.ESISyncState;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class ESISyncStatsRollupTest {
+
+  // Default bucket width and settle delay
+  private static final long HOUR = TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+  private static final long NOW = 1000 * HOUR + HOUR / 2;
+  private static final ESISyncEndpoint ENDPOINT = ESISyncEndpoint.values()[0];
+
+  private static ESIEndpointSyncTracker mockTracker(long syncStart) {
+    ESIEndpointSyncTracker tracker = EasyMock.createMock(ESIEndpointSyncTracker.class);
+    EasyMock.expect(tracker.getEndpoint())
+            .andReturn(ENDPOINT)
+            .anyTimes();
+    EasyMock.expect(tracker.getSyncStart())
+            .andReturn(syncStart)
+            .anyTimes();
+    EasyMock.expect(tracker.getSyncEnd())
+            .andReturn(syncStart + 1000)
+            .anyTimes();
+    EasyMock.expect(tracker.getStatus())
+            .andReturn(ESISyncState.FINISHED)
+            .anyTimes();
+    EasyMock.replay(tracker);
+    return tracker;
+  }
+
+  private static int attempts(long from) {
+    SyncEndpointStats stats = new SyncEndpointStats(ENDPOINT, 0, 0);
+    ESISyncStatsRollup.sum(from)
+                      .addTo(stats);
+    return stats.getAttempts();
+  }
+
+  // Load the rollup with one recounted bucket at 999h and one backfilled bucket at 997h
+  private static void load() {
+    ESISyncStatsRollup.Refresh refresh = ESISyncStatsRollup.plan(NOW, 996 * HOUR, HOUR);
+    Assert.assertNotNull(refresh);
+    ESISyncStatsRollup.addToBucket(refresh.recounted, mockTracker(999 * HOUR + 10), HOUR);
+    ESISyncStatsRollup.addToBucket(refresh.backfilled, mockTracker(997 * HOUR + 10), HOUR);
+    ESISyncStatsRollup.apply(refresh, NOW);
+  }
+
+  @Before
+  public void setUp() {
+    ESISyncStatsRollup.reset();
+  }
+
+  @Test
+  public void testInitialPlan() {
+    ESISyncStatsRollup.Refresh refresh = ESISyncStatsRollup.plan(NOW, 996 * HOUR, HOUR);
+    Assert.assertNotNull(refresh);
+    Assert.assertEquals(999 * HOUR, refresh.recountFrom);
+    Assert.assertEquals(999 * HOUR, refresh.sealBoundary);
+    Assert.assertEquals(999 * HOUR, refresh.backfillFrom);
+    Assert.assertEquals(996 * HOUR, refresh.backfillTo);
+  }
+
+  @Test
+  public void testNoRefreshWithinInterval() {
+    load();
+    Assert.assertEquals(2, attempts(996 * HOUR));
+    Assert.assertNull(ESISyncStatsRollup.plan(NOW + 1000, 996 * HOUR, HOUR));
+  }
+
+  @Test
+  public void testRecordFinishedOnlyInSealedBuckets() {
+    load();
+    ESISyncStatsRollup.recordFinished(mockTracker(998 * HOUR + 10));
+    ESISyncStatsRollup.recordFinished(mockTracker(999 * HOUR + 20));
+    Assert.assertEquals(3, attempts(996 * HOUR));
+  }
+
+  @Test
+  public void testRecountSealsSettledBuckets() {
+    load();
+    ESISyncStatsRollup.Refresh refresh = ESISyncStatsRollup.plan(NOW + 2 * HOUR, 996 * HOUR, HOUR);
+    Assert.assertNotNull(refresh);
+    Assert.assertEquals(999 * HOUR, refresh.recountFrom);
+    Assert.assertEquals(1001 * HOUR, refresh.sealBoundary);
+    Assert.assertEquals(-1, refresh.backfillFrom);
+    ESISyncStatsRollup.addToBucket(refresh.recounted, mockTracker(999 * HOUR + 10), HOUR);
+    ESISyncStatsRollup.addToBucket(refresh.recounted, mockTracker(1000 * HOUR + 10), HOUR);
+    ESISyncStatsRollup.apply(refresh, NOW + 2 * HOUR);
+    Assert.assertEquals(3, attempts(996 * HOUR));
+
+    // 999h is now sealed, so force-finished trackers there are recorded directly
+    ESISyncStatsRollup.recordFinished(mockTracker(999 * HOUR + 20));
+    Assert.assertEquals(4, attempts(996 * HOUR));
+  }
+
+  @Test
+  public void testStaleRefreshDiscarded() {
+    load();
+    ESISyncStatsRollup.Refresh stale = ESISyncStatsRollup.plan(NOW + 2 * HOUR, 996 * HOUR, HOUR);
+    ESISyncStatsRollup.Refresh current = ESISyncStatsRollup.plan(NOW + 2 * HOUR, 996 * HOUR, HOUR);
+    ESISyncStatsRollup.apply(current, NOW + 2 * HOUR);
+    ESISyncStatsRollup.addToBucket(stale.recounted, mockTracker(1001 * HOUR + 10), HOUR);
+    ESISyncStatsRollup.apply(stale, NOW + 2 * HOUR);
+    Assert.assertEquals(1, attempts(996 * HOUR));
+  }
+
+}
@@ -0,0 +1,31 @@
+package enterprises.orbital.evekit.ws.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ESISyncTrackerCursorTest {
+
+  @Test
+  public void testRoundTrip() {
+    ESISyncTrackerCursor cut = ESISyncTrackerCursor.before(1234567890123L);
+    String encoded = cut.encode();
+    Assert.assertEquals(encoded, ESISyncTrackerCursor.decode(encoded)
+                                                     .encode());
+  }
+
+  @Test
+  public void testNoCursorForLatest() {
+    Assert.assertNull(ESISyncTrackerCursor.before(-1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedEncoding() {
+    ESISyncTrackerCursor.decode("not a cursor!");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedContent() {
+    ESISyncTrackerCursor.decode("YWJjOmRlZg");
+  }
+
+}
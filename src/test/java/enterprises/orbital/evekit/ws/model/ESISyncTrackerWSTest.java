@@ -7,6 +7,9 @@ import org.junit.Test;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class ESISyncTrackerWSTest extends TestBase {
 
@@ -15,7 +18,7 @@ public class ESISyncTrackerWSTest extends TestBase {
     HttpServletRequest mock = setupRequestMock(null, "some source");
     EasyMock.replay(mock);
     ESISyncTrackerWS cut = new ESISyncTrackerWS();
-    Response result = cut.requestSyncHistory(mock, 1, 2, 3);
+    Response result = cut.requestSyncHistory(mock, 1, 2, 3, null);
     Assert.assertEquals(401, result.getStatus());
     EasyMock.verify(mock);
   }
@@ -25,7 +28,7 @@ public class ESISyncTrackerWSTest extends TestBase {
     HttpServletRequest mock = setupRequestMock("some user", null);
     EasyMock.replay(mock);
     ESISyncTrackerWS cut = new ESISyncTrackerWS();
-    Response result = cut.requestSyncHistory(mock, 1, 2, 3);
+    Response result = cut.requestSyncHistory(mock, 1, 2, 3, null);
     Assert.assertEquals(401, result.getStatus());
     EasyMock.verify(mock);
   }
@@ -35,7 +38,7 @@ public class ESISyncTrackerWSTest extends TestBase {
     HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
     EasyMock.replay(mock);
     ESISyncTrackerWS cut = new ESISyncTrackerWS();
-    Response result = cut.requestSyncHistory(mock, 1, 2, 3);
+    Response result = cut.requestSyncHistory(mock, 1, 2, 3, null);
     Assert.assertEquals(404, result.getStatus());
     EasyMock.verify(mock);
   }
@@ -55,6 +58,26 @@ public class ESISyncTrackerWSTest extends TestBase {
     // TODO
   }
 
+  @Test
+  public void testRequestSyncHistoryStream_NotLoggedIn() {
+    HttpServletRequest mock = setupRequestMock(null, "some source");
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestSyncHistoryStream(mock, 1, 2, 3, null);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestSyncHistoryStream_AccountNotFound() {
+    HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestSyncHistoryStream(mock, 1, 2, 3, null);
+    Assert.assertEquals(404, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
   @Test
   public void testRequestStartedSync_NotLoggedIn_One() {
     HttpServletRequest mock = setupRequestMock(null, "some source");
@@ -85,6 +108,36 @@ public class ESISyncTrackerWSTest extends TestBase {
     // TODO
   }
 
+  @Test
+  public void testRequestSyncSiteStatsAll_NotLoggedIn_One() {
+    HttpServletRequest mock = setupRequestMock(null, "some source");
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestSyncSiteStatsAll(mock, 0);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestSyncSiteStatsAll_NotLoggedIn_Two() {
+    HttpServletRequest mock = setupRequestMock("some user", null);
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestSyncSiteStatsAll(mock, 0);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestSyncSiteStatsAll_NotAdmin() {
+    HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestSyncSiteStatsAll(mock, 0);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
   @Test
   public void testRequestFinishTracker_NotLoggedIn_One() {
     HttpServletRequest mock = setupRequestMock(null, "some source");
@@ -130,4 +183,133 @@ public class ESISyncTrackerWSTest extends TestBase {
     // TODO
   }
 
+  @Test
+  public void testRequestTrackerEvents_NotLoggedIn_One() {
+    HttpServletRequest mock = setupRequestMock(null, "some source");
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestTrackerEvents(mock, -1, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestTrackerEvents_NotLoggedIn_Two() {
+    HttpServletRequest mock = setupRequestMock("some user", null);
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestTrackerEvents(mock, -1, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestTrackerEvents_NotAdmin() {
+    HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestTrackerEvents(mock, -1, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_NotLoggedIn_One() {
+    HttpServletRequest mock = setupRequestMock(null, "some source");
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, Collections.singletonList(1L), null, null, null, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_NotLoggedIn_Two() {
+    HttpServletRequest mock = setupRequestMock("some user", null);
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, Collections.singletonList(1L), null, null, null, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_NotAdmin() {
+    HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, Collections.singletonList(1L), null, null, null, -1);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_NoSelection() {
+    HttpServletRequest mock = setupRequestMock(adminUser.getUid(), adminSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, null, null, null, null, -1);
+    Assert.assertEquals(400, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_BothSelections() {
+    HttpServletRequest mock = setupRequestMock(adminUser.getUid(), adminSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, Collections.singletonList(1L), null, null, null, 1234L);
+    Assert.assertEquals(400, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestFinishTrackers_TrackersNotFound() {
+    HttpServletRequest mock = setupRequestMock(adminUser.getUid(), adminSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestFinishTrackers(mock, Arrays.asList(-1L, -2L), Collections.singletonList(-3L), null, null, -1);
+    Assert.assertEquals(200, result.getStatus());
+    @SuppressWarnings("unchecked")
+    List<BulkFinishItem> items = (List<BulkFinishItem>) result.getEntity();
+    Assert.assertEquals(3, items.size());
+    Assert.assertEquals(-1L, items.get(0).getTid());
+    Assert.assertFalse(items.get(0).isRef());
+    Assert.assertEquals(-2L, items.get(1).getTid());
+    Assert.assertEquals(-3L, items.get(2).getTid());
+    Assert.assertTrue(items.get(2).isRef());
+    for (BulkFinishItem next : items) Assert.assertEquals(BulkFinishItem.Result.NOT_FOUND, next.getResult());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestReaperRuns_NotLoggedIn_One() {
+    HttpServletRequest mock = setupRequestMock(null, "some source");
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestReaperRuns(mock);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestReaperRuns_NotLoggedIn_Two() {
+    HttpServletRequest mock = setupRequestMock("some user", null);
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestReaperRuns(mock);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
+  @Test
+  public void testRequestReaperRuns_NotAdmin() {
+    HttpServletRequest mock = setupRequestMock(regularUser.getUid(), regularSource.getSource());
+    EasyMock.replay(mock);
+    ESISyncTrackerWS cut = new ESISyncTrackerWS();
+    Response result = cut.requestReaperRuns(mock);
+    Assert.assertEquals(401, result.getStatus());
+    EasyMock.verify(mock);
+  }
+
 }
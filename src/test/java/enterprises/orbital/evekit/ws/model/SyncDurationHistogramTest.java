@@ -0,0 +1,59 @@
+package enterprises.orbital.evekit.ws.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SyncDurationHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    SyncDurationHistogram cut = new SyncDurationHistogram();
+    Assert.assertEquals(0, cut.getTotalCount());
+    Assert.assertEquals(0, cut.getMax());
+    Assert.assertEquals(0, cut.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void testIndexRoundTrip() {
+    for (long value = 0; value < 1L << 20; value += 7) {
+      int index = SyncDurationHistogram.indexOf(value);
+      Assert.assertTrue(SyncDurationHistogram.highestValueAt(index) >= value);
+      if (index > 0) Assert.assertTrue(SyncDurationHistogram.highestValueAt(index - 1) < value);
+    }
+  }
+
+  @Test
+  public void testPercentilesWithinPrecision() {
+    SyncDurationHistogram cut = new SyncDurationHistogram();
+    for (long i = 1; i <= 10000; i++) cut.record(i * 10);
+    Assert.assertEquals(10000, cut.getTotalCount());
+    Assert.assertEquals(100000, cut.getMax());
+    Assert.assertEquals(50000, cut.getValueAtPercentile(50), 50000 * 0.07);
+    Assert.assertEquals(90000, cut.getValueAtPercentile(90), 90000 * 0.07);
+    Assert.assertEquals(99000, cut.getValueAtPercentile(99), 99000 * 0.07);
+    Assert.assertEquals(100000, cut.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testMerge() {
+    SyncDurationHistogram low = new SyncDurationHistogram();
+    SyncDurationHistogram high = new SyncDurationHistogram();
+    SyncDurationHistogram all = new SyncDurationHistogram();
+    for (long i = 0; i < 500; i++) {
+      low.record(i);
+      all.record(i);
+    }
+    for (long i = 100000; i < 100500; i++) {
+      high.record(i);
+      all.record(i);
+    }
+    SyncDurationHistogram merged = new SyncDurationHistogram();
+    merged.merge(high);
+    merged.merge(low);
+    Assert.assertEquals(all.getTotalCount(), merged.getTotalCount());
+    Assert.assertEquals(all.getMax(), merged.getMax());
+    for (double p : new double[]{1, 25, 50, 75, 90, 99, 100})
+      Assert.assertEquals(all.getValueAtPercentile(p), merged.getValueAtPercentile(p));
+  }
+
+}
@@ -0,0 +1,89 @@
+package enterprises.orbital.evekit.ws.model;
+
+import enterprises.orbital.evekit.model.ESIEndpointSyncTracker;
+import enterprises.orbital.evekit.ws.common.CacheStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class UnfinishedTrackerCacheTest {
+
+  private static class CountingLoader implements UnfinishedTrackerCache.Loader {
+    int loads;
+
+    @Override
+    public List<ESIEndpointSyncTracker> load() {
+      loads++;
+      return new ArrayList<>();
+    }
+  }
+
+  @Test
+  public void testHitAfterMiss() throws IOException {
+    UnfinishedTrackerCache cut = new UnfinishedTrackerCache(10, Long.MAX_VALUE);
+    CountingLoader loader = new CountingLoader();
+    cut.get(1, loader);
+    cut.get(1, loader);
+    Assert.assertEquals(1, loader.loads);
+    CacheStats stats = cut.stats();
+    Assert.assertEquals(1, stats.getHits());
+    Assert.assertEquals(1, stats.getMisses());
+    Assert.assertEquals(1, stats.getSize());
+  }
+
+  @Test
+  public void testExpiration() throws IOException {
+    UnfinishedTrackerCache cut = new UnfinishedTrackerCache(10, 0);
+    CountingLoader loader = new CountingLoader();
+    cut.get(1, loader);
+    cut.get(1, loader);
+    Assert.assertEquals(2, loader.loads);
+    Assert.assertEquals(1, cut.stats()
+                              .getExpirations());
+  }
+
+  @Test
+  public void testInvalidate() throws IOException {
+    UnfinishedTrackerCache cut = new UnfinishedTrackerCache(10, Long.MAX_VALUE);
+    CountingLoader loader = new CountingLoader();
+    cut.get(1, loader);
+    cut.remove(1);
+    cut.get(1, loader);
+    Assert.assertEquals(2, loader.loads);
+    Assert.assertEquals(1, cut.stats()
+                              .getInvalidations());
+  }
+
+  @Test
+  public void testInvalidateDuringLoad() throws IOException {
+    UnfinishedTrackerCache cut = new UnfinishedTrackerCache(10, Long.MAX_VALUE);
+    CountingLoader loader = new CountingLoader();
+    cut.get(1, () -> {
+      cut.remove(1);
+      return new ArrayList<>();
+    });
+    cut.get(1, loader);
+    Assert.assertEquals(1, loader.loads);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws IOException {
+    UnfinishedTrackerCache cut = new UnfinishedTrackerCache(2, Long.MAX_VALUE);
+    CountingLoader loader = new CountingLoader();
+    cut.get(1, loader);
+    cut.get(2, loader);
+    cut.get(1, loader);
+    cut.get(3, loader);
+    Assert.assertEquals(3, loader.loads);
+    Assert.assertEquals(1, cut.stats()
+                              .getEvictions());
+    cut.get(1, loader);
+    Assert.assertEquals(3, loader.loads);
+    cut.get(2, loader);
+    Assert.assertEquals(4, loader.loads);
+  }
+
+}